@@ -0,0 +1,134 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax.bench;
+
+import hapax.Modifiers;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timing of the J and U modifiers over ASCII, Latin-1 and CJK input,
+ * against the formatting implementations they replaced: {@link
+ * String#format String.format} and {@link Integer#toHexString
+ * Integer.toHexString} for J, and {@link URLEncoder} for U.
+ * 
+ * <pre>
+ * java -cp classes:bench.classes hapax.bench.EscapeBench [calls]
+ * </pre>
+ * 
+ * @author jdp
+ */
+public final class EscapeBench
+    extends Object
+{
+    private final static String[] Names = {
+        "ASCII", "Latin-1", "CJK"
+    };
+    private final static String[] Inputs = {
+        "The quick brown fox; jumps over <the> lazy dog & \"friends\" = 42?",
+        "Caf\u00e9 cr\u00e8me br\u00fbl\u00e9e, na\u00efve fa\u00e7ade \u00bf\u00a1se\u00f1or\u00ed\u00e1!",
+        "\u6771\u4eac\u90fd\u6e2f\u533a\u829d\u516c\u57124\u4e01\u76ee\u3001\u65e5\u672c\u8a9e\u306e\u6587\u7ae0\u3067\u3059\u3002"
+    };
+
+
+    public static void main(String[] argv)
+        throws Exception
+    {
+        int calls = (0 < argv.length)?(Integer.parseInt(argv[0])):(300000);
+        List<Modifiers.FLAGS> url = Arrays.asList(Modifiers.FLAGS.U);
+
+        for (int warm = 0; warm < 3; warm++){
+            for (String input : Inputs){
+                Time(input, calls/10, url);
+            }
+        }
+        System.out.println("input    modifier  previous ns  current ns  speedup");
+        for (int cc = 0; cc < Inputs.length; cc++){
+            long[] times = Time(Inputs[cc], calls, url);
+            Report(Names[cc], "J", times[0], times[1], calls);
+            Report(Names[cc], "U", times[2], times[3], calls);
+        }
+    }
+    /**
+     * @return Nanoseconds for previous and current J, then previous
+     * and current U
+     */
+    private static long[] Time(String input, int calls, List<Modifiers.FLAGS> url)
+        throws UnsupportedEncodingException
+    {
+        long[] times = new long[4];
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int cc = 0; cc < calls; cc++)
+            sink += PreviousJsEscape(input).length();
+        times[0] = (System.nanoTime()-start);
+
+        start = System.nanoTime();
+        for (int cc = 0; cc < calls; cc++)
+            sink += Modifiers.jsEscape(input).length();
+        times[1] = (System.nanoTime()-start);
+
+        start = System.nanoTime();
+        for (int cc = 0; cc < calls; cc++)
+            sink += URLEncoder.encode(input, "UTF-8").length();
+        times[2] = (System.nanoTime()-start);
+
+        start = System.nanoTime();
+        for (int cc = 0; cc < calls; cc++)
+            sink += Modifiers.applyModifiers(input, url).length();
+        times[3] = (System.nanoTime()-start);
+
+        if (0 == sink)
+            throw new IllegalStateException();
+        return times;
+    }
+    private static void Report(String name, String modifier, long previous, long current, int calls){
+        System.out.println(String.format("%-8s %-9s %11.1f %11.1f %7.2fx", name, modifier,
+                                         ((double)previous/calls), ((double)current/calls),
+                                         ((double)previous/current)));
+    }
+    /**
+     * The J modifier before it wrote from a hex table.
+     */
+    private static String PreviousJsEscape(String unescaped){
+        final String also_safe = "_ ";
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < unescaped.length(); i++) {
+            char ch = unescaped.charAt(i);
+            if (Character.isLetterOrDigit(ch) || also_safe.indexOf(ch) != -1) {
+                escaped.append(ch);
+            } else if (ch < 256) {
+                escaped.append("\\x").append(Integer.toHexString(ch));
+            } else {
+                escaped.append("\\u").append(String.format("%04x", (int) ch));
+            }
+        }
+        return escaped.toString();
+    }
+}
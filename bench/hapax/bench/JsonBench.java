@@ -0,0 +1,143 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax.bench;
+
+import hapax.JsonDictionary;
+import hapax.JsonLoader;
+import hapax.Template;
+import hapax.TemplateDictionary;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Throughput of JSON data for templates: {@link JsonLoader} building
+ * a {@link TemplateDictionary}, with and without rendering, against
+ * indexing and rendering the same document through {@link
+ * JsonDictionary}.
+ * 
+ * <pre>
+ * java -cp classes:bench.classes hapax.bench.JsonBench [rows] [documents]
+ * </pre>
+ * 
+ * @author jdp
+ */
+public final class JsonBench
+    extends Object
+{
+    private final static String Source =
+        "{{TITLE}}{{#ITEMS}}<{{NAME}} {{PRICE}}{{#TAGS}} {{TAGS}}{{/TAGS}}{{#OK}}!{{/OK}}>{{/ITEMS}}";
+
+
+    public static void main(String[] argv)
+        throws Exception
+    {
+        int rows = (0 < argv.length)?(Integer.parseInt(argv[0])):(1000);
+        int documents = (1 < argv.length)?(Integer.parseInt(argv[1])):(2000);
+
+        byte[] json = Document(rows);
+        Template template = new Template(Source, null, "bench");
+
+        String loaded = template.renderToString(JsonLoader.Load(new ByteArrayInputStream(json)));
+        String indexed = template.renderToString(new JsonDictionary(json));
+        if (!loaded.equals(indexed))
+            throw new IllegalStateException("JsonLoader and JsonDictionary render differently");
+
+        for (int warm = 0; warm < 3; warm++){
+            Load(json, documents/10);
+            LoadRender(json, template, documents/10);
+            IndexRender(json, template, documents/10);
+        }
+        System.out.println("document "+json.length+" bytes, "+rows+" rows, "+documents+" documents");
+        System.out.println("path                        ms/doc    MB/s");
+        Report("JsonLoader.Load", Load(json, documents), json.length, documents);
+        Report("JsonLoader.Load + render", LoadRender(json, template, documents), json.length, documents);
+        Report("JsonDictionary + render", IndexRender(json, template, documents), json.length, documents);
+    }
+
+    private static long Load(byte[] json, int documents)
+        throws Exception
+    {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int cc = 0; cc < documents; cc++){
+            TemplateDictionary dict = JsonLoader.Load(new ByteArrayInputStream(json));
+            sink += dict.getSection("ITEMS").size();
+        }
+        long time = (System.nanoTime()-start);
+        if (0 == sink)
+            throw new IllegalStateException();
+        return time;
+    }
+    private static long LoadRender(byte[] json, Template template, int documents)
+        throws Exception
+    {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int cc = 0; cc < documents; cc++)
+            sink += template.renderToString(JsonLoader.Load(new ByteArrayInputStream(json))).length();
+        long time = (System.nanoTime()-start);
+        if (0 == sink)
+            throw new IllegalStateException();
+        return time;
+    }
+    private static long IndexRender(byte[] json, Template template, int documents)
+        throws Exception
+    {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int cc = 0; cc < documents; cc++)
+            sink += template.renderToString(new JsonDictionary(json)).length();
+        long time = (System.nanoTime()-start);
+        if (0 == sink)
+            throw new IllegalStateException();
+        return time;
+    }
+    private static void Report(String name, long time, int length, int documents){
+        double seconds = (time/1e9);
+        System.out.println(String.format("%-26s %8.3f %7.1f", name, ((seconds*1000)/documents),
+                                         (((double)length*documents)/(seconds*1e6))));
+    }
+    /**
+     * @return UTF-8 JSON object with a title and an array of rows
+     */
+    private static byte[] Document(int rows)
+        throws Exception
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"TITLE\":\"Items \\u00e9t\\u00e9\",\"ITEMS\":[");
+        for (int cc = 0; cc < rows; cc++){
+            if (0 != cc)
+                json.append(',');
+            json.append("{\"NAME\":\"item ").append(cc)
+                .append("\",\"PRICE\":").append(cc).append(".25")
+                .append(",\"TAGS\":[\"a\",\"b").append(cc % 7).append("\"]")
+                .append(",\"OK\":").append(0 == (cc % 3))
+                .append(",\"NOTE\":null}");
+        }
+        json.append("]}");
+        return json.toString().getBytes("UTF-8");
+    }
+}
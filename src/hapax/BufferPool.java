@@ -0,0 +1,122 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size direct byte buffers for {@link
+ * Template#renderToBuffers Template.renderToBuffers}.
+ * 
+ * A pool is shared by threads.  It allocates a buffer when it has
+ * none free, and retains up to its capacity of released buffers.
+ * 
+ * @see RenderOutput
+ * @author jdp
+ */
+public final class BufferPool
+    extends Object
+{
+    /**
+     * Default buffer size in bytes
+     */
+    public final static int Size = 0x2000;
+    /**
+     * Default number of free buffers retained
+     */
+    public final static int Capacity = 0x100;
+    /**
+     * Shared pool with default size and capacity
+     */
+    public final static BufferPool Default = new BufferPool();
+
+
+    private final int size;
+
+    private final int capacity;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicInteger count = new AtomicInteger();
+
+
+    public BufferPool(){
+        this(Size,Capacity);
+    }
+    /**
+     * @param size Buffer size in bytes
+     * @param capacity Number of free buffers retained
+     */
+    public BufferPool(int size, int capacity){
+        super();
+        if (0 < size && -1 < capacity){
+            this.size = size;
+            this.capacity = capacity;
+        }
+        else
+            throw new IllegalArgumentException("size "+size+", capacity "+capacity);
+    }
+
+
+    public int getBufferSize(){
+        return this.size;
+    }
+    public int getCapacity(){
+        return this.capacity;
+    }
+    /**
+     * @return Number of free buffers
+     */
+    public int getFree(){
+        return this.count.get();
+    }
+    /**
+     * @return Empty direct buffer
+     */
+    public ByteBuffer acquire(){
+        ByteBuffer buffer = this.free.poll();
+        if (null == buffer)
+            return ByteBuffer.allocateDirect(this.size);
+        else {
+            this.count.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+    }
+    /**
+     * Return a buffer acquired from this pool.
+     */
+    public void release(ByteBuffer buffer){
+        if (null != buffer && buffer.isDirect() && this.size == buffer.capacity()){
+            if (this.count.incrementAndGet() <= this.capacity)
+                this.free.offer(buffer);
+            else
+                this.count.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Tabular section data held as one array per column.
+ * 
+ * Columns are arrays of <code>int</code>, <code>long</code>,
+ * <code>double</code>, or of objects such as strings that are
+ * converted to text when rendered.  Each section data dictionary is
+ * a read-only cursor over one row of the table, so that no
+ * dictionary, table or value is created for a row in advance of
+ * rendering it.  The renderer moves one cursor over the rows of a
+ * section, and writes numbers from their columns without boxing
+ * them.  An empty table is not rendered.
+ * 
+ * <pre>
+ * ColumnSection table = new ColumnSection(count);
+ * table.addColumn("NAME", names);
+ * table.addColumn("QUANTITY", quantities);
+ * dict.setSection("ROW", table);
+ * </pre>
+ * 
+ * @author jdp
+ */
+public final class ColumnSection
+    extends AbstractList<TemplateDataDictionary>
+    implements SectionList, RandomAccess
+{
+    /**
+     * Shared by scopes
+     */
+    private final static class Table
+        extends Object
+    {
+        final int count;
+
+        final CompactMap<Object> columns = new CompactMap<Object>();
+
+        Table(int count){
+            super();
+            if (-1 < count)
+                this.count = count;
+            else
+                throw new IllegalArgumentException(String.valueOf(count));
+        }
+
+        void add(String name, Object column, int length){
+            if (null == name)
+                throw new IllegalArgumentException();
+            else if (length < this.count)
+                throw new IllegalArgumentException(name);
+            else
+                this.columns.put(name,column);
+        }
+        String get(String name, int index){
+            Object value = this.value(name,index);
+            if (null == value || value instanceof String)
+                return (String)value;
+            else
+                return value.toString();
+        }
+        /**
+         * Write a value without boxing it.
+         * @return False for a null value or an undefined column
+         */
+        boolean print(String name, int index, java.io.PrintWriter out, char[] digits){
+            Object column = this.columns.get(name);
+            if (null == column)
+                return false;
+            else if (column instanceof int[])
+                Digits.Print(out,(long)((int[])column)[index],digits);
+            else if (column instanceof long[])
+                Digits.Print(out,((long[])column)[index],digits);
+            else if (column instanceof double[])
+                Digits.Print(out,((double[])column)[index],digits);
+            else {
+                Object value = ((Object[])column)[index];
+                if (null == value)
+                    return false;
+                else
+                    Digits.Print(out,value,digits);
+            }
+            return true;
+        }
+        Object value(String name, int index){
+            Object column = this.columns.get(name);
+            if (null == column)
+                return null;
+            else if (column instanceof Object[])
+                return ((Object[])column)[index];
+            else if (column instanceof int[])
+                return Integer.valueOf(((int[])column)[index]);
+            else if (column instanceof long[])
+                return Long.valueOf(((long[])column)[index]);
+            else
+                return Double.valueOf(((double[])column)[index]);
+        }
+    }
+    /**
+     * Cursor over one row of the table.
+     */
+    public final static class Row
+        extends ReadOnlyDictionary
+    {
+        private final Table table;
+
+        private int index;
+
+
+        Row(Table table, int index, TemplateDataDictionary parent){
+            super(parent);
+            this.table = table;
+            this.index = index;
+        }
+
+
+        /**
+         * @return Row index from zero
+         */
+        public int getIndex(){
+            return this.index;
+        }
+        protected String lookupVariable(String name){
+            return this.table.get(name,this.index);
+        }
+        /**
+         * Write the value of a column in this row, without boxing a
+         * number.
+         * @return False for a variable not defined by the row
+         */
+        public boolean print(String name, java.io.PrintWriter out, char[] digits){
+            return this.table.print(name,this.index,out,digits);
+        }
+        protected Object lookupVariableValue(String name){
+            Object value = this.table.value(name,this.index);
+            if (null == value || value instanceof Number)
+                return value;
+            else
+                return value.toString();
+        }
+        protected List<TemplateDataDictionary> lookupSection(String sectionName){
+            return null;
+        }
+        public TemplateDataDictionary clone(TemplateDataDictionary parent){
+            return new Row(this.table,this.index,parent);
+        }
+    }
+
+
+    private final Table table;
+
+    private final TemplateDataDictionary parent;
+
+
+    /**
+     * @param count Number of rows
+     */
+    public ColumnSection(int count){
+        this(new Table(count),null);
+    }
+    private ColumnSection(Table table, TemplateDataDictionary parent){
+        super();
+        this.table = table;
+        this.parent = parent;
+    }
+
+
+    /**
+     * @param values Column having at least as many values as rows,
+     * converted to text when rendered.
+     */
+    public ColumnSection addColumn(String name, Object[] values){
+        this.table.add(name,values,values.length);
+        return this;
+    }
+    public ColumnSection addColumn(String name, int[] values){
+        this.table.add(name,values,values.length);
+        return this;
+    }
+    public ColumnSection addColumn(String name, long[] values){
+        this.table.add(name,values,values.length);
+        return this;
+    }
+    public ColumnSection addColumn(String name, double[] values){
+        this.table.add(name,values,values.length);
+        return this;
+    }
+    public SectionList scope(TemplateDataDictionary parent){
+        return new ColumnSection(this.table,parent);
+    }
+    /**
+     * No effect.
+     */
+    public void renderComplete(){
+    }
+    /**
+     * @return Cursor over the indexed row
+     */
+    public TemplateDataDictionary get(int index){
+        if (-1 < index && index < this.table.count)
+            return new Row(this.table,index,this.parent);
+        else
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+    /**
+     * Iteration for the renderer, which moves the argument cursor to
+     * the indexed row rather than creating another.  The cursor is
+     * valid until the next call.
+     * 
+     * @param cursor A cursor returned by this method for this
+     * section, or null
+     * @return Cursor over the indexed row
+     */
+    public TemplateDataDictionary cursor(int index, TemplateDataDictionary cursor){
+        if (cursor instanceof Row){
+            Row row = (Row)cursor;
+            if (row.table == this.table && row.getParent() == this.parent
+                && -1 < index && index < this.table.count)
+            {
+                row.index = index;
+                return row;
+            }
+        }
+        return this.get(index);
+    }
+    public int size(){
+        return this.table.count;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.util.HashMap;
+
+/**
+ * An insertion ordered, string keyed map for the small tables held
+ * by {@link TemplateDictionary}.
+ *
+ * Entries are stored in flat parallel arrays that are allocated on
+ * the first write.  Up to {@link #Threshold} entries are found by
+ * linear scan, and larger maps add a hash index over the arrays.
+ *
+ * @author jdp
+ */
+public final class CompactMap<V>
+    extends Object
+    implements java.lang.Cloneable
+{
+    /**
+     * Maximum number of entries found by linear scan.
+     */
+    public final static int Threshold = 8;
+
+    private final static int Initial = 4;
+
+
+    private String[] keys;
+
+    private Object[] values;
+
+    private int count;
+
+    private HashMap<String,Integer> index;
+
+
+    public CompactMap(){
+        super();
+    }
+
+
+    public int size(){
+        return this.count;
+    }
+    public boolean isEmpty(){
+        return (0 == this.count);
+    }
+    public boolean containsKey(String key){
+        return (-1 != this.indexOf(key));
+    }
+    public V get(String key){
+        int idx = this.indexOf(key);
+        if (-1 != idx)
+            return this.valueAt(idx);
+        else
+            return null;
+    }
+    /**
+     * @return Previous value
+     */
+    public V put(String key, V value){
+        int idx = this.indexOf(key);
+        if (-1 != idx){
+            V previous = this.valueAt(idx);
+            this.values[idx] = value;
+            return previous;
+        }
+        else {
+            idx = this.count;
+            String[] keys = this.keys;
+            if (null == keys){
+                this.keys = new String[Initial];
+                this.values = new Object[Initial];
+            }
+            else if (idx == keys.length){
+                int grow = (idx<<1);
+                String[] k = new String[grow];
+                Object[] v = new Object[grow];
+                System.arraycopy(keys,0,k,0,idx);
+                System.arraycopy(this.values,0,v,0,idx);
+                this.keys = k;
+                this.values = v;
+            }
+            this.keys[idx] = key;
+            this.values[idx] = value;
+            this.count = (idx+1);
+
+            if (null != this.index)
+                this.index.put(key,idx);
+            else if (Threshold < this.count)
+                this.reindex();
+
+            return null;
+        }
+    }
+    /**
+     * @return Removed value
+     */
+    public V remove(String key){
+        int idx = this.indexOf(key);
+        if (-1 != idx){
+            V previous = this.valueAt(idx);
+            int count = (this.count-1);
+            int tail = (count-idx);
+            if (0 < tail){
+                System.arraycopy(this.keys,(idx+1),this.keys,idx,tail);
+                System.arraycopy(this.values,(idx+1),this.values,idx,tail);
+            }
+            this.keys[count] = null;
+            this.values[count] = null;
+            this.count = count;
+
+            if (null != this.index){
+                if (Threshold < count)
+                    this.reindex();
+                else
+                    this.index = null;
+            }
+            return previous;
+        }
+        else
+            return null;
+    }
+    /**
+     * Drop all entries, retaining storage.
+     */
+    public void clear(){
+        int count = this.count;
+        if (0 != count){
+            java.util.Arrays.fill(this.keys,0,count,null);
+            java.util.Arrays.fill(this.values,0,count,null);
+            this.count = 0;
+        }
+        this.index = null;
+    }
+    /**
+     * @param idx Insertion order index from zero to size
+     */
+    public String keyAt(int idx){
+        if (-1 < idx && idx < this.count)
+            return this.keys[idx];
+        else
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(idx));
+    }
+    /**
+     * @param idx Insertion order index from zero to size
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int idx){
+        /*
+         * (The values array holds only V, written by put and setValueAt)
+         */
+        if (-1 < idx && idx < this.count)
+            return (V)this.values[idx];
+        else
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(idx));
+    }
+    /**
+     * @param idx Insertion order index from zero to size
+     */
+    public void setValueAt(int idx, V value){
+        if (-1 < idx && idx < this.count)
+            this.values[idx] = value;
+        else
+            throw new ArrayIndexOutOfBoundsException(String.valueOf(idx));
+    }
+    /**
+     * @return Index of key, or negative one.
+     */
+    public int indexOf(String key){
+        int count = this.count;
+        if (0 != count){
+            HashMap<String,Integer> index = this.index;
+            if (null != index){
+                Integer idx = index.get(key);
+                if (null != idx)
+                    return idx.intValue();
+            }
+            else {
+                String[] keys = this.keys;
+                if (null == key){
+                    /*
+                     * A null key, as in the index
+                     */
+                    for (int cc = 0; cc < count; cc++){
+                        if (null == keys[cc])
+                            return cc;
+                    }
+                }
+                else {
+                    int hash = key.hashCode();
+                    for (int cc = 0; cc < count; cc++){
+                        String k = keys[cc];
+                        if (k == key || (null != k && hash == k.hashCode() && k.equals(key)))
+                            return cc;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+    /**
+     * Shallow copy of keys and values.
+     */
+    @SuppressWarnings("unchecked")
+    public CompactMap<V> clone(){
+        /*
+         * (Object.clone returns an instance of this class and type)
+         */
+        try {
+            CompactMap<V> clone = (CompactMap<V>)super.clone();
+            if (null != this.keys){
+                clone.keys = this.keys.clone();
+                clone.values = this.values.clone();
+            }
+            if (null != this.index)
+                clone.index = new HashMap<String,Integer>(this.index);
+            return clone;
+        }
+        catch (java.lang.CloneNotSupportedException exc){
+            throw new java.lang.Error(exc);
+        }
+    }
+    public String toString(){
+        StringBuilder string = new StringBuilder();
+        string.append('{');
+        for (int cc = 0, count = this.count; cc < count; cc++){
+            if (0 != cc)
+                string.append(", ");
+            string.append(this.keys[cc]);
+            string.append('=');
+            string.append(this.values[cc]);
+        }
+        string.append('}');
+        return string.toString();
+    }
+
+    private void reindex(){
+        int count = this.count;
+        HashMap<String,Integer> index = new HashMap<String,Integer>(count<<1);
+        String[] keys = this.keys;
+        for (int cc = 0; cc < count; cc++){
+            index.put(keys[cc],cc);
+        }
+        this.index = index;
+    }
+}
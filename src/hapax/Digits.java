@@ -0,0 +1,101 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.io.PrintWriter;
+
+/**
+ * Locale independent formatting of numeric variable values into a
+ * character buffer, producing the text of {@link String#valueOf(long)}
+ * and {@link String#valueOf(double)}.
+ * 
+ * @see RenderFrame#print(PrintWriter,Object)
+ * @author jdp
+ */
+public final class Digits
+    extends Object
+{
+    /**
+     * Minimum buffer length
+     */
+    public final static int Length = 20;
+
+    private final static long NegativeZero = Double.doubleToRawLongBits(-0.0);
+
+
+    /**
+     * Write a string, or the text of a number.
+     */
+    public final static void Print(PrintWriter out, Object value, char[] buffer){
+        if (value instanceof String)
+            out.write((String)value);
+        else if (value instanceof Integer || value instanceof Long
+                 || value instanceof Short || value instanceof Byte)
+            Print(out,((Number)value).longValue(),buffer);
+        else if (value instanceof Double)
+            Print(out,((Double)value).doubleValue(),buffer);
+        else
+            out.write(value.toString());
+    }
+    public final static void Print(PrintWriter out, long value, char[] buffer){
+        if (Long.MIN_VALUE == value)
+            out.write(String.valueOf(value));
+        else {
+            int end = Length, ofs = end;
+            boolean negative = (0 > value);
+            if (negative)
+                value = -value;
+            do {
+                buffer[--ofs] = (char)('0' + (int)(value % 10));
+                value /= 10;
+            }
+            while (0 != value);
+            if (negative)
+                buffer[--ofs] = '-';
+            out.write(buffer,ofs,(end-ofs));
+        }
+    }
+    /**
+     * Integral values in the plain notation range of {@link
+     * Double#toString(double)} are written as digits, others via
+     * {@link String#valueOf(double)}.
+     */
+    public final static void Print(PrintWriter out, double value, char[] buffer){
+        long integral = (long)value;
+        if (integral == value && -1e7 < value && value < 1e7
+            && NegativeZero != Double.doubleToRawLongBits(value))
+        {
+            Print(out,integral,buffer);
+            out.write(".0");
+        }
+        else
+            out.write(String.valueOf(value));
+    }
+
+    private Digits(){
+        super();
+    }
+}
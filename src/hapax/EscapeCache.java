@@ -0,0 +1,138 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.io.PrintWriter;
+
+/**
+ * Bounded cache of modified variable values for a render, so that
+ * a value repeated in the output is modified once.
+ * 
+ * Values are held by their modifiers in a direct mapped table, and
+ * a value replaces another in the same table slot.  Counters of hits
+ * and misses show whether the cache pays off for a template.  A
+ * cache is confined to the thread of a render, and modifies values
+ * into a buffer that it reuses.
+ * 
+ * @see Template#setEscapeCaching(boolean)
+ * @author jdp
+ */
+public final class EscapeCache
+    extends Object
+{
+    /**
+     * Default number of entries
+     */
+    public final static int Capacity = 0x100;
+    /**
+     * Longest value cached
+     */
+    public final static int Length = 0x400;
+
+
+    private final String[] values;
+
+    private final Modifiers.Chain[] chains;
+
+    private final String[] results;
+
+    private final int mask;
+
+    private long hits, misses;
+
+    private RenderArena.Chars buffer;
+
+
+    public EscapeCache(){
+        this(Capacity);
+    }
+    /**
+     * @param capacity Number of entries, rounded up to a power of two
+     */
+    public EscapeCache(int capacity){
+        super();
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        this.values = new String[size];
+        this.chains = new Modifiers.Chain[size];
+        this.results = new String[size];
+        this.mask = (size-1);
+    }
+
+
+    public long getHits(){
+        return this.hits;
+    }
+    public long getMisses(){
+        return this.misses;
+    }
+    /**
+     * Drop entries and counts, and buffer storage exceeding {@link
+     * RenderArena#Retain}.
+     */
+    public void clear(){
+        java.util.Arrays.fill(this.values,null);
+        java.util.Arrays.fill(this.chains,null);
+        java.util.Arrays.fill(this.results,null);
+        this.hits = 0L;
+        this.misses = 0L;
+        if (null != this.buffer)
+            this.buffer.trim(RenderArena.Retain);
+    }
+    /**
+     * Write the modified value.
+     */
+    public void write(Modifiers.Chain chain, String value, PrintWriter out){
+        if (Length < value.length())
+            chain.write(value,out);
+        else {
+            int hash = (value.hashCode() ^ chain.hashCode());
+            int slot = ((hash ^ (hash >>> 16)) & this.mask);
+            String cached = this.values[slot];
+            if (chain == this.chains[slot] && null != cached && (cached == value || cached.equals(value))){
+                this.hits += 1;
+                out.write(this.results[slot]);
+            }
+            else {
+                this.misses += 1;
+                RenderArena.Chars buffer = this.buffer;
+                if (null == buffer){
+                    buffer = new RenderArena.Chars();
+                    this.buffer = buffer;
+                }
+                String result = chain.apply(value,buffer);
+                this.values[slot] = value;
+                this.chains[slot] = chain;
+                this.results[slot] = result;
+                out.write(result);
+            }
+        }
+    }
+    public String toString(){
+        return "{hits="+this.hits+", misses="+this.misses+"}";
+    }
+}
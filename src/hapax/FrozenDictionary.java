@@ -0,0 +1,151 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable copy of a {@link TemplateDictionary} produced by
+ * {@link TemplateDictionary#freeze()}.
+ * 
+ * A frozen dictionary is never cleared by rendering, and may be
+ * rendered repeatedly and by any number of threads concurrently.
+ * Request data is layered over shared data with {@link
+ * TemplateDictionary#create(TemplateDataDictionary)}, which creates
+ * a mutable dictionary having the frozen dictionary as its parent.
+ * 
+ * Section data dictionaries are shared by every render.  Where a
+ * section is seen from another scope, for instance inherited into the
+ * section of an overlay, its section data are presented as views that
+ * share this content under a different parent.
+ * 
+ * @author jdp
+ */
+public final class FrozenDictionary
+    extends ReadOnlyDictionary
+{
+
+    private final FrozenDictionary content;
+
+    private final CompactMap<Object> variables;
+
+    private final CompactMap<List<TemplateDataDictionary>> sections;
+
+
+    /**
+     * Copy the content of the source, excluding its ancestors.
+     */
+    FrozenDictionary(TemplateDictionary source){
+        this(source, null);
+    }
+    private FrozenDictionary(TemplateDictionary source, TemplateDataDictionary parent){
+        super(parent,source.debugAnnotationsEnabled());
+        source.resolveDeferred();
+        this.content = this;
+        this.variables = Copy(source.getVariableTable());
+        CompactMap<List<TemplateDataDictionary>> sources = source.getSectionTable();
+        if (null != sources && 0 != sources.size()){
+            CompactMap<List<TemplateDataDictionary>> sections = new CompactMap<List<TemplateDataDictionary>>();
+            for (int cc = 0, count = sources.size(); cc < count; cc++){
+                List<TemplateDataDictionary> section = sources.valueAt(cc);
+                if (section instanceof SectionList && !(section instanceof SectionStream))
+                    sections.put(sources.keyAt(cc), ((SectionList)section).scope(this));
+                else {
+                    /*
+                     * A stream is read once, so its rows are copied
+                     * like those of a list
+                     */
+                    List<TemplateDataDictionary> frozen = new ArrayList<TemplateDataDictionary>();
+                    for (TemplateDataDictionary item : section){
+                        if (item instanceof TemplateDictionary)
+                            frozen.add(new FrozenDictionary((TemplateDictionary)item, this));
+                        else
+                            frozen.add(item.clone(this));
+                    }
+                    sections.put(sources.keyAt(cc), Collections.unmodifiableList(frozen));
+                }
+            }
+            this.sections = sections;
+        }
+        else
+            this.sections = null;
+    }
+    /**
+     * View
+     */
+    private FrozenDictionary(FrozenDictionary content, TemplateDataDictionary parent){
+        super(parent,content.annotations);
+        this.content = content;
+        this.variables = content.variables;
+        this.sections = content.sections;
+    }
+
+
+    protected String lookupVariable(String name){
+        Object value = this.lookupVariableValue(name);
+        if (null != value)
+            return value.toString();
+        else
+            return null;
+    }
+    protected Object lookupVariableValue(String name){
+        CompactMap<Object> variables = this.variables;
+        if (null != variables)
+            return variables.get(name);
+        else
+            return null;
+    }
+    protected List<TemplateDataDictionary> lookupSection(String sectionName){
+        CompactMap<List<TemplateDataDictionary>> sections = this.sections;
+        if (null != sections){
+            List<TemplateDataDictionary> section = sections.get(sectionName);
+            if (null != section && this != this.content)
+                return TemplateDictionary.SectionClone(this,section);
+            else
+                return section;
+        }
+        else
+            return null;
+    }
+    public TemplateDataDictionary clone(TemplateDataDictionary parent){
+        if (null != parent)
+            return new FrozenDictionary(this.content,parent);
+        else
+            throw new IllegalStateException();
+    }
+    public String toString(){
+        return "{" + ((null != variables)?(variables):("{}")) + ", " + ((null != sections)?(sections):("{}")) + "}";
+    }
+
+    private final static CompactMap<Object> Copy(CompactMap<Object> variables){
+        if (null != variables && 0 != variables.size())
+            return variables.clone();
+        else
+            return null;
+    }
+}
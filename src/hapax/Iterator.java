@@ -50,6 +50,10 @@ package hapax;
  * 
  * </dl>
  * 
+ * The renderer answers these sections from its {@link RenderFrame}
+ * without defining them into section data dictionaries.  The {@link
+ * #Define Define} function remains available to applications that
+ * want the same sections present in a dictionary.
  * 
  * @author jdp
  */
@@ -64,6 +68,24 @@ public class Iterator
         public final static String Exclusive = "_it_Exclusive";
     }
 
+    /**
+     * @return Section name is an iteration marker
+     */
+    public final static boolean IsMarker(String sectionName){
+        if (-1 != sectionName.indexOf("_it_")){
+            return (IsMarker(sectionName,Suffix.First)
+                    || IsMarker(sectionName,Suffix.NotFirst)
+                    || IsMarker(sectionName,Suffix.Last)
+                    || IsMarker(sectionName,Suffix.NotLast)
+                    || IsMarker(sectionName,Suffix.Exclusive));
+        }
+        else
+            return false;
+    }
+    private final static boolean IsMarker(String sectionName, String suffix){
+        return (sectionName.length() > suffix.length() && sectionName.endsWith(suffix));
+    }
+
     public final static void Define(TemplateDataDictionary dict, String sectionName, int cc, int count){
         if (0 == cc){
             dict.showSection(sectionName+Suffix.First);
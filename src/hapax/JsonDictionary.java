@@ -0,0 +1,497 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only dictionary over the bytes of a UTF-8 JSON document.
+ * 
+ * The document is scanned once into a structural index of token
+ * offsets, and nothing else is built.  A member of a JSON object is
+ * found by comparing its key bytes, and a string or number is
+ * decoded when the template references it.  The document may be
+ * heap memory or a mapped file.
+ * 
+ * Object members are variables and sections in the manner of {@link
+ * ObjectDictionary}: an array is a section iterated over its
+ * elements, and the value of an element that is not an object is the
+ * variable named by the section, as in
+ * <code>{{#TAGS}}{{TAGS}} {{/TAGS}}</code>; an object is a section iterated once, <code>true</code>
+ * is a visible section, and <code>false</code>, <code>null</code> and
+ * an empty array are not visible.  A string or number member is a
+ * variable, <code>true</code> is the variable "true", and
+ * <code>false</code> and <code>null</code> are not variables, as in
+ * {@link JsonLoader}.  Member names are case sensitive.
+ * 
+ * @author jdp
+ */
+public final class JsonDictionary
+    extends ReadOnlyDictionary
+{
+    /**
+     * Document bytes and structural index, shared by all of its
+     * dictionaries.
+     */
+    private final static class Document
+        extends Object
+    {
+        private final ByteBuffer buffer;
+        /**
+         * Byte offset of token
+         */
+        private int[] start;
+        /**
+         * Index of the token following the token and its content
+         */
+        private int[] next;
+
+        private int count;
+
+
+        Document(ByteBuffer buffer){
+            super();
+            this.buffer = buffer;
+            this.start = new int[64];
+            this.next = new int[64];
+            this.index();
+        }
+
+
+        byte at(int ofs){
+            return this.buffer.get(ofs);
+        }
+        byte type(int token){
+            return this.buffer.get(this.start[token]);
+        }
+        int next(int token){
+            return this.next[token];
+        }
+        /**
+         * @param object Object token
+         * @return Value token of member, or negative one
+         */
+        int member(int object, String name){
+            int end = this.next[object];
+            for (int key = (object+1); key < end; ){
+                int value = (key+1);
+                if (this.equals(key,name))
+                    return value;
+                else
+                    key = this.next[value];
+            }
+            return -1;
+        }
+        /**
+         * @param array Array token
+         * @return Element tokens
+         */
+        int[] elements(int array){
+            int end = this.next[array];
+            int count = 0;
+            for (int element = (array+1); element < end; element = this.next[element])
+                count += 1;
+            int[] elements = new int[count];
+            for (int cc = 0, element = (array+1); cc < count; cc++, element = this.next[element])
+                elements[cc] = element;
+            return elements;
+        }
+        /**
+         * @return Text of string, number or true, otherwise null, as
+         * <code>false</code> defines no variable in {@link JsonLoader}
+         */
+        String text(int token){
+            int ofs = this.start[token];
+            switch (this.buffer.get(ofs)){
+            case '"':
+                return this.string(ofs);
+            case 't':
+                return "true";
+            case 'f':
+            case 'n':
+            case '{':
+            case '[':
+                return null;
+            default:
+                int end = this.scalar(ofs);
+                char[] text = new char[end-ofs];
+                for (int cc = 0; ofs < end; cc++, ofs++)
+                    text[cc] = (char)this.buffer.get(ofs);
+                return new String(text);
+            }
+        }
+        /**
+         * Compare a string token with a name.
+         */
+        private boolean equals(int token, String name){
+            ByteBuffer buffer = this.buffer;
+            int ofs = this.start[token]+1;
+            int len = name.length();
+            for (int cc = 0; cc < len; cc++, ofs++){
+                int b = buffer.get(ofs);
+                if ('\\' == b || 0 > b)
+                    return name.equals(this.string(this.start[token]));
+                else if (b != name.charAt(cc))
+                    return false;
+            }
+            return ('"' == buffer.get(ofs));
+        }
+        /**
+         * Decode the string starting with the quote at the argument
+         * offset.
+         */
+        private String string(int ofs){
+            ByteBuffer buffer = this.buffer;
+            int end = this.skipString(ofs);
+            StringBuilder string = new StringBuilder(end-ofs);
+            for (ofs += 1, end -= 1; ofs < end; ){
+                int b = buffer.get(ofs++);
+                if ('\\' == b){
+                    b = buffer.get(ofs++);
+                    switch (b){
+                    case 'b':
+                        string.append('\b');
+                        break;
+                    case 'f':
+                        string.append('\f');
+                        break;
+                    case 'n':
+                        string.append('\n');
+                        break;
+                    case 'r':
+                        string.append('\r');
+                        break;
+                    case 't':
+                        string.append('\t');
+                        break;
+                    case 'u':
+                        int ch = 0;
+                        for (int cc = 0; cc < 4; cc++)
+                            ch = (ch<<4)|Hex(buffer.get(ofs++));
+                        string.append((char)ch);
+                        break;
+                    default:
+                        string.append((char)b);
+                        break;
+                    }
+                }
+                else if (0 <= b)
+                    string.append((char)b);
+                else {
+                    int ch, more;
+                    if (0xC0 == (b & 0xE0)){
+                        ch = (b & 0x1F);
+                        more = 1;
+                    }
+                    else if (0xE0 == (b & 0xF0)){
+                        ch = (b & 0x0F);
+                        more = 2;
+                    }
+                    else if (0xF0 == (b & 0xF8)){
+                        ch = (b & 0x07);
+                        more = 3;
+                    }
+                    else {
+                        string.append('\ufffd');
+                        continue;
+                    }
+                    for (; 0 < more && ofs < end; more--){
+                        b = buffer.get(ofs);
+                        if (0x80 == (b & 0xC0)){
+                            ch = (ch<<6)|(b & 0x3F);
+                            ofs += 1;
+                        }
+                        else
+                            break;
+                    }
+                    if (0 != more)
+                        string.append('\ufffd');
+                    else
+                        string.appendCodePoint(ch);
+                }
+            }
+            return string.toString();
+        }
+        /**
+         * @return Offset following the closing quote
+         */
+        private int skipString(int ofs){
+            ByteBuffer buffer = this.buffer;
+            int limit = buffer.limit();
+            for (ofs += 1; ofs < limit; ofs++){
+                switch (buffer.get(ofs)){
+                case '"':
+                    return (ofs+1);
+                case '\\':
+                    ofs += 1;
+                    break;
+                default:
+                    break;
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+        /**
+         * @return Offset following the number or literal
+         */
+        private int scalar(int ofs){
+            ByteBuffer buffer = this.buffer;
+            int limit = buffer.limit();
+            for (; ofs < limit; ofs++){
+                switch (buffer.get(ofs)){
+                case ',':
+                case ':':
+                case '}':
+                case ']':
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                    return ofs;
+                default:
+                    break;
+                }
+            }
+            return ofs;
+        }
+        private void index(){
+            ByteBuffer buffer = this.buffer;
+            int[] open = new int[16];
+            int depth = 0;
+            for (int ofs = buffer.position(), limit = buffer.limit(); ofs < limit; ){
+                byte b = buffer.get(ofs);
+                switch (b){
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                case ',':
+                case ':':
+                    ofs += 1;
+                    break;
+                case '{':
+                case '[':
+                    if (depth == open.length){
+                        int[] copier = new int[depth<<1];
+                        System.arraycopy(open,0,copier,0,depth);
+                        open = copier;
+                    }
+                    open[depth++] = this.add(ofs);
+                    ofs += 1;
+                    break;
+                case '}':
+                case ']':
+                    if (0 == depth)
+                        throw new IllegalArgumentException("Unbalanced '"+(char)b+"' at "+ofs);
+                    else {
+                        int token = open[--depth];
+                        if ((b - this.at(this.start[token])) != 2)
+                            throw new IllegalArgumentException("Unbalanced '"+(char)b+"' at "+ofs);
+                        this.next[token] = this.count;
+                        ofs += 1;
+                    }
+                    break;
+                case '"':
+                    this.add(ofs);
+                    this.next[this.count-1] = this.count;
+                    ofs = this.skipString(ofs);
+                    break;
+                default:
+                    this.add(ofs);
+                    this.next[this.count-1] = this.count;
+                    ofs = this.scalar(ofs);
+                    break;
+                }
+            }
+            if (0 != depth)
+                throw new IllegalArgumentException("Unterminated document");
+            else if (0 == this.count || '{' != this.type(0))
+                throw new IllegalArgumentException("Document is not an object");
+        }
+        private int add(int ofs){
+            int token = this.count;
+            if (token == this.start.length){
+                int grow = (token<<1);
+                int[] start = new int[grow];
+                int[] next = new int[grow];
+                System.arraycopy(this.start,0,start,0,token);
+                System.arraycopy(this.next,0,next,0,token);
+                this.start = start;
+                this.next = next;
+            }
+            this.start[token] = ofs;
+            this.count = (token+1);
+            return token;
+        }
+
+        private final static int Hex(byte b){
+            int ch = Character.digit((char)b,16);
+            if (-1 != ch)
+                return ch;
+            else
+                throw new IllegalArgumentException("Invalid escape");
+        }
+    }
+    /**
+     * Section data over the elements of an array.
+     */
+    private final static class Rows
+        extends AbstractList<TemplateDataDictionary>
+        implements RandomAccess
+    {
+        private final Document document;
+
+        private final int[] elements;
+
+        private final TemplateDataDictionary parent;
+        /**
+         * Section name, naming the value of an element that is not an
+         * object
+         */
+        private final String name;
+
+
+        Rows(Document document, int[] elements, TemplateDataDictionary parent, String name){
+            super();
+            this.document = document;
+            this.elements = elements;
+            this.parent = parent;
+            this.name = name;
+        }
+
+
+        public TemplateDataDictionary get(int index){
+            return new JsonDictionary(this.document,this.elements[index],this.parent,this.name);
+        }
+        public int size(){
+            return this.elements.length;
+        }
+    }
+
+
+    private final Document document;
+    /**
+     * Object token, or another value as the element of an array
+     */
+    private final int token;
+    /**
+     * Section name of an array element that is not an object, which
+     * is the name of its value, or null
+     */
+    private final String name;
+
+
+    /**
+     * @param json UTF-8 JSON object
+     */
+    public JsonDictionary(byte[] json){
+        this(ByteBuffer.wrap(json));
+    }
+    /**
+     * @param json UTF-8 JSON object from position to limit, not
+     * modified while in use
+     */
+    public JsonDictionary(ByteBuffer json){
+        this(new Document(json.duplicate()),0,null,null);
+    }
+    private JsonDictionary(Document document, int token, TemplateDataDictionary parent, String name){
+        super(parent);
+        this.document = document;
+        this.token = token;
+        this.name = name;
+    }
+
+
+    /**
+     * A member of the object is not inherited or synthesized from a
+     * variable, so that a false or empty value hides the section.
+     */
+    public List<TemplateDataDictionary> getSection(String sectionName){
+        int value = this.member(sectionName);
+        if (-1 == value)
+            return super.getSection(sectionName);
+        else
+            return this.section(sectionName,value);
+    }
+    protected String lookupVariable(String name){
+        int value = this.member(name);
+        if (-1 == value)
+            return null;
+        else
+            return this.document.text(value);
+    }
+    protected List<TemplateDataDictionary> lookupSection(String sectionName){
+        int value = this.member(sectionName);
+        if (-1 == value)
+            return null;
+        else
+            return this.section(sectionName,value);
+    }
+    public TemplateDataDictionary clone(TemplateDataDictionary parent){
+        return new JsonDictionary(this.document,this.token,parent,this.name);
+    }
+
+    /**
+     * @return Value token of an object member, or of an array element
+     * by its section name, otherwise negative one
+     */
+    private int member(String name){
+        Document document = this.document;
+        if ('{' == document.type(this.token))
+            return document.member(this.token,name);
+        else if (null != this.name && this.name.equals(name))
+            return this.token;
+        else
+            return -1;
+    }
+    /**
+     * @param name Section name, naming the value of an element that
+     * is not an object
+     */
+    private List<TemplateDataDictionary> section(String name, int value){
+        Document document = this.document;
+        switch (document.type(value)){
+        case '[':
+            if (document.next(value) == (value+1))
+                return null;
+            else
+                return new Rows(document,document.elements(value),this,name);
+        case '{':
+            List<TemplateDataDictionary> section = new ArrayList<TemplateDataDictionary>(1);
+            section.add(new JsonDictionary(document,value,this,null));
+            return section;
+        case 'f':
+        case 'n':
+            return null;
+        default:
+            return Synthetic;
+        }
+    }
+}
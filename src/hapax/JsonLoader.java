@@ -0,0 +1,416 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Streaming reader of a JSON object into a {@link TemplateDictionary}.
+ * 
+ * The document is read once, defining dictionary content as its
+ * tokens arrive, without an intermediate tree.  A string or number
+ * member is a variable, and <code>true</code> is the variable
+ * "true".  An object member is a section row, and each element of an
+ * array member is a row of the section named by the member: an
+ * object element is the row content, and another element is the
+ * value of the row named by the section, as in
+ * <code>{{#TAGS}}{{TAGS}} {{/TAGS}}</code>.  Members <code>false</code> and <code>null</code>, and
+ * empty arrays, define nothing.  This is the content presented by
+ * {@link JsonDictionary}.
+ * 
+ * Member names are shared among the rows that repeat them.
+ * 
+ * @author jdp
+ */
+public final class JsonLoader
+    extends Object
+{
+    /**
+     * @param in UTF-8 JSON object
+     */
+    public final static TemplateDictionary Load(InputStream in)
+        throws IOException
+    {
+        return Load(new InputStreamReader(in,"UTF-8"));
+    }
+    public final static TemplateDictionary Load(Reader in)
+        throws IOException
+    {
+        TemplateDictionary dict = TemplateDictionary.create();
+        Load(in,dict);
+        return dict;
+    }
+    /**
+     * Define the members of the JSON object into the argument
+     * dictionary.
+     */
+    public final static void Load(Reader in, TemplateDataDictionary dict)
+        throws IOException
+    {
+        JsonLoader loader = new JsonLoader(in);
+        if ('{' == loader.next())
+            loader.object(dict);
+        else
+            throw loader.error("Expected object");
+
+        if (-1 != loader.next())
+            throw loader.error("Unexpected content");
+    }
+
+
+    private final Reader in;
+
+    private final char[] buffer = new char[0x1000];
+
+    private int ofs, len;
+
+    private long position;
+
+    private final StringBuilder text = new StringBuilder();
+
+    private final String[] names = new String[0x100];
+
+
+    private JsonLoader(Reader in){
+        super();
+        this.in = in;
+    }
+
+
+    /**
+     * After '{'
+     */
+    private void object(TemplateDataDictionary dict)
+        throws IOException
+    {
+        int ch = this.next();
+        if ('}' == ch)
+            return;
+        else {
+            while (true){
+                if ('"' != ch)
+                    throw this.error("Expected member name");
+                else {
+                    String name = this.name();
+                    if (':' != this.next())
+                        throw this.error("Expected ':'");
+                    else
+                        this.member(dict,name);
+
+                    ch = this.next();
+                    if ('}' == ch)
+                        return;
+                    else if (',' == ch)
+                        ch = this.next();
+                    else
+                        throw this.error("Expected ',' or '}'");
+                }
+            }
+        }
+    }
+    private void member(TemplateDataDictionary dict, String name)
+        throws IOException
+    {
+        this.value(dict,name,this.next());
+    }
+    /**
+     * Define the value named in the dictionary.
+     * @param ch First character of the value
+     */
+    private void value(TemplateDataDictionary dict, String name, int ch)
+        throws IOException
+    {
+        switch (ch){
+        case '{':
+            this.object(dict.addSection(name));
+            break;
+        case '[':
+            this.array(dict,name);
+            break;
+        case '"':
+            dict.setVariable(name,this.string().toString());
+            break;
+        case 't':
+            this.literal(ch);
+            dict.setVariable(name,"true");
+            break;
+        case 'f':
+        case 'n':
+            this.literal(ch);
+            break;
+        default:
+            dict.setVariable(name,this.number(ch).toString());
+            break;
+        }
+    }
+    /**
+     * After '['
+     */
+    private void array(TemplateDataDictionary dict, String name)
+        throws IOException
+    {
+        int ch = this.next();
+        if (']' == ch)
+            return;
+        else {
+            while (true){
+                switch (ch){
+                case '{':
+                    this.object(dict.addSection(name));
+                    break;
+                default:
+                    this.value(dict.addSection(name),name,ch);
+                    break;
+                }
+                ch = this.next();
+                if (']' == ch)
+                    return;
+                else if (',' == ch)
+                    ch = this.next();
+                else
+                    throw this.error("Expected ',' or ']'");
+            }
+        }
+    }
+    /**
+     * Read over a value.
+     */
+    private void skip(int ch)
+        throws IOException
+    {
+        switch (ch){
+        case '{':
+            ch = this.next();
+            if ('}' != ch){
+                while (true){
+                    if ('"' != ch)
+                        throw this.error("Expected member name");
+                    this.string();
+                    if (':' != this.next())
+                        throw this.error("Expected ':'");
+                    this.skip(this.next());
+                    ch = this.next();
+                    if ('}' == ch)
+                        break;
+                    else if (',' == ch)
+                        ch = this.next();
+                    else
+                        throw this.error("Expected ',' or '}'");
+                }
+            }
+            break;
+        case '[':
+            ch = this.next();
+            if (']' != ch){
+                while (true){
+                    this.skip(ch);
+                    ch = this.next();
+                    if (']' == ch)
+                        break;
+                    else if (',' == ch)
+                        ch = this.next();
+                    else
+                        throw this.error("Expected ',' or ']'");
+                }
+            }
+            break;
+        case '"':
+            this.string();
+            break;
+        case 't':
+        case 'f':
+        case 'n':
+            this.literal(ch);
+            break;
+        default:
+            this.number(ch);
+            break;
+        }
+    }
+    /**
+     * After '"'
+     * @return Member name shared with previous occurrences
+     */
+    private String name()
+        throws IOException
+    {
+        StringBuilder text = this.string();
+        int hash = 0;
+        for (int cc = 0, count = text.length(); cc < count; cc++)
+            hash = (31*hash)+text.charAt(cc);
+
+        String[] names = this.names;
+        int slot = (hash & (names.length-1));
+        String name = names[slot];
+        if (null == name || !name.contentEquals(text)){
+            name = text.toString();
+            names[slot] = name;
+        }
+        return name;
+    }
+    /**
+     * After '"'
+     * @return Reused buffer
+     */
+    private StringBuilder string()
+        throws IOException
+    {
+        StringBuilder text = this.text;
+        text.setLength(0);
+        while (true){
+            int ch = this.read();
+            switch (ch){
+            case -1:
+                throw this.error("Unterminated string");
+            case '"':
+                return text;
+            case '\\':
+                ch = this.read();
+                switch (ch){
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'u':
+                    int value = 0;
+                    for (int cc = 0; cc < 4; cc++){
+                        int digit = Character.digit(this.read(),16);
+                        if (-1 == digit)
+                            throw this.error("Invalid escape");
+                        else
+                            value = (value<<4)|digit;
+                    }
+                    text.append((char)value);
+                    break;
+                case -1:
+                    throw this.error("Unterminated string");
+                default:
+                    text.append((char)ch);
+                    break;
+                }
+                break;
+            default:
+                text.append((char)ch);
+                break;
+            }
+        }
+    }
+    /**
+     * @return Reused buffer
+     */
+    private StringBuilder number(int ch)
+        throws IOException
+    {
+        StringBuilder text = this.text;
+        text.setLength(0);
+        while (('0' <= ch && ch <= '9') || '-' == ch || '+' == ch || '.' == ch || 'e' == ch || 'E' == ch){
+            text.append((char)ch);
+            ch = this.read();
+        }
+        if (0 == text.length())
+            throw this.error("Unexpected character");
+        else {
+            this.unread(ch);
+            return text;
+        }
+    }
+    private void literal(int ch)
+        throws IOException
+    {
+        String literal;
+        switch (ch){
+        case 't':
+            literal = "true";
+            break;
+        case 'f':
+            literal = "false";
+            break;
+        default:
+            literal = "null";
+            break;
+        }
+        for (int cc = 1, count = literal.length(); cc < count; cc++){
+            if (literal.charAt(cc) != this.read())
+                throw this.error("Expected '"+literal+"'");
+        }
+    }
+    /**
+     * @return Next character that is not white space, or negative
+     * one at end of input.
+     */
+    private int next()
+        throws IOException
+    {
+        while (true){
+            int ch = this.read();
+            switch (ch){
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+                break;
+            default:
+                return ch;
+            }
+        }
+    }
+    private int read()
+        throws IOException
+    {
+        if (this.ofs == this.len){
+            this.position += this.len;
+            this.ofs = 0;
+            this.len = 0;
+            int read = this.in.read(this.buffer,0,this.buffer.length);
+            if (0 < read)
+                this.len = read;
+            else
+                return -1;
+        }
+        return this.buffer[this.ofs++];
+    }
+    private void unread(int ch){
+        if (-1 != ch)
+            this.ofs -= 1;
+    }
+    private IOException error(String message){
+        return new IOException(message+" at "+(this.position+this.ofs));
+    }
+}
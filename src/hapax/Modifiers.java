@@ -25,10 +25,10 @@
  */
 package hapax;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Static class that implements the methods used by the modifiers.
@@ -47,32 +47,811 @@ public final class Modifiers {
         INDENT
     }
 
+    /**
+     * Template modifier "safeurl", which writes a URL having the
+     * scheme http, https or mailto, or no scheme, and otherwise
+     * writes "#".  The contextual parser applies it to a variable at
+     * the start of a URL attribute value, so that a value as
+     * "javascript:..." is not a link.  White space and control
+     * characters in the scheme are ignored, as they are by browsers.
+     */
+    public final static class SafeUrl
+        extends Object
+        implements TemplateModifier
+    {
+        public final static String Name = "safeurl";
+
+        public final static SafeUrl Instance = new SafeUrl();
+
+
+        private SafeUrl() {
+            super();
+        }
+
+
+        public PrintWriter writer(String argument, PrintWriter out) {
+            return new PrintWriter(new Scheme(out));
+        }
+
+        /**
+         * @return The URL is relative, or has an allowed scheme
+         */
+        public final static boolean IsSafe(String url) {
+            StringBuilder scheme = new StringBuilder(8);
+            for (int i = 0, len = url.length(); i < len; i++) {
+                char ch = url.charAt(i);
+                switch (ch) {
+                case ':':
+                    String name = scheme.toString();
+                    return ("http".equals(name) || "https".equals(name) || "mailto".equals(name));
+                case '/':
+                case '?':
+                case '#':
+                    return true;
+                default:
+                    if (' ' < ch)
+                        scheme.append(Character.toLowerCase(ch));
+                    break;
+                }
+            }
+            return true;
+        }
+        /**
+         * Holds its input until the scheme is known.
+         */
+        private final static class Scheme
+            extends java.io.Writer
+        {
+            private final PrintWriter out;
+            /**
+             * Input held while reading a scheme, or null
+             */
+            private StringBuilder scheme = new StringBuilder(8);
+
+            private boolean drop;
+
+
+            Scheme(PrintWriter out) {
+                super();
+                this.out = out;
+            }
+
+
+            public void write(char[] cbuf, int off, int len) {
+                if (this.drop)
+                    return;
+                else if (null == this.scheme)
+                    this.out.write(cbuf, off, len);
+                else {
+                    for (int end = (off + len); off < end; off++) {
+                        char ch = cbuf[off];
+                        switch (ch) {
+                        case ':':
+                        case '/':
+                        case '?':
+                        case '#':
+                            this.scheme.append(ch);
+                            this.complete();
+                            if (!this.drop && (off+1) < end)
+                                this.out.write(cbuf, (off+1), (end-off-1));
+                            return;
+                        default:
+                            this.scheme.append(ch);
+                            break;
+                        }
+                    }
+                }
+            }
+            public void flush() {
+                this.out.flush();
+            }
+            public void close() {
+                if (null != this.scheme)
+                    this.complete();
+            }
+            /**
+             * Write the held input, or "#" for a scheme not allowed.
+             */
+            private void complete() {
+                String input = this.scheme.toString();
+                this.scheme = null;
+                if (IsSafe(input))
+                    this.out.write(input);
+                else {
+                    this.out.write('#');
+                    this.drop = true;
+                }
+            }
+        }
+    }
+
+    private final static ConcurrentHashMap<String,TemplateModifier> Registry = new ConcurrentHashMap<String,TemplateModifier>();
+    /**
+     * Define a modifier for templates parsed after this call.
+     * 
+     * @param name Modifier name, not case sensitive and not one of
+     * the {@link FLAGS} or {@link SafeUrl}
+     * @exception java.lang.IllegalArgumentException For a built in
+     * modifier name, or a name containing ':' or '='
+     */
+    public static void register(String name, TemplateModifier modifier) {
+        if (null == name)
+            throw new IllegalArgumentException("Missing modifier name");
+        else if (null != parseFlag(name) || SafeUrl.Name.equalsIgnoreCase(name)
+            || -1 != name.indexOf(':') || -1 != name.indexOf('='))
+            throw new IllegalArgumentException(name);
+        else if (null == modifier)
+            throw new IllegalArgumentException("Missing modifier for '"+name+"'");
+        else
+            Registry.put(name.toLowerCase(), modifier);
+    }
+    /**
+     * Drop a modifier from templates parsed after this call.
+     */
+    public static void unregister(String name) {
+        Registry.remove(name.toLowerCase());
+    }
+    /**
+     * @return Registered or built in template modifier, or null
+     */
+    public static TemplateModifier lookup(String name) {
+        if (SafeUrl.Name.equalsIgnoreCase(name))
+            return SafeUrl.Instance;
+        else
+            return Registry.get(name.toLowerCase());
+    }
+    /**
+     * @return Built in modifier, or null
+     */
+    public static FLAGS parseFlag(String name) {
+        for (FLAGS flag : FLAGS.values()) {
+            if (flag.name().equalsIgnoreCase(name))
+                return flag;
+        }
+        return null;
+    }
+
     public static String applyModifiers(String input, List<FLAGS> modifiers) {
         return applyModifiersWithIndentation(input, modifiers, "\n");
     }
     
     public static String applyModifiersWithIndentation(String input, List<FLAGS> modifiers, String indentation) {
         for (FLAGS modifier : modifiers) {
-            switch (modifier) {
+            input = applyModifier(input, modifier, indentation);
+        }
+        return input;
+    }
+    /**
+     * Write the modified input to the output.
+     */
+    public static void applyModifiers(String input, List<FLAGS> modifiers, PrintWriter out) {
+        applyModifiersWithIndentation(input, modifiers, "\n", out);
+    }
+    /**
+     * Write the modified input to the output.  The last modifier
+     * writes to the output as it scans its input, so that an input
+     * that it doesn't change is written without copying.
+     */
+    public static void applyModifiersWithIndentation(String input, List<FLAGS> modifiers, String indentation, PrintWriter out) {
+        int last = (modifiers.size()-1);
+        for (int cc = 0; cc < last; cc++) {
+            input = applyModifier(input, modifiers.get(cc), indentation);
+        }
+        if (-1 == last)
+            out.write(input);
+        else {
+            switch (modifiers.get(last)) {
             case H:
-                input = htmlEscape(input);
+                htmlEscape(input, out);
                 break;
             case X:
-                input = xmlEscape(input);
+                xmlEscape(input, out);
                 break;
             case J:
-                input = jsEscape(input);
+                jsEscape(input, out);
                 break;
             case U:
-                input = urlEncode(input);
+                out.write(urlEncode(input));
                 break;
             case B:
-                input = newlinesToBreaks(input);
+                /*
+                 * (Without newlines to indent)
+                 */
+                replace(input, '\n', "<br />", out);
+                break;
             case INDENT:
-                input = indent(input, indentation);
+                replace(input, '\n', indentation, out);
+                break;
             }
         }
-        return input;
+    }
+    private static String applyModifier(String input, FLAGS modifier, String indentation) {
+        switch (modifier) {
+        case H:
+            return htmlEscape(input);
+        case X:
+            return xmlEscape(input);
+        case J:
+            return jsEscape(input);
+        case U:
+            return urlEncode(input);
+        case B:
+            return newlinesToBreaks(input);
+        case INDENT:
+            return indent(input, indentation);
+        default:
+            return input;
+        }
+    }
+
+    /**
+     * A list of modifiers compiled into one pass over its input.
+     * 
+     * Each modifier replaces each character (or code point) of its
+     * input independently, so that the list is equivalent to the
+     * replacement of each input character with the application of
+     * the list to that character.  For the Latin-1 range the combined
+     * replacements are precomputed.  Other characters pass through
+     * when no modifier changes them, and are otherwise replaced by
+     * each modifier in turn without producing intermediate strings.
+     */
+    public final static class Chain
+        extends Object
+    {
+        private final static int Table = 0x100;
+
+
+        private final List<FLAGS> modifiers;
+
+        private final FLAGS[] stages;
+
+        private final String indentation;
+        /**
+         * Replacement by stage for the Latin-1 range, null for none
+         */
+        private final String[][] tables;
+        /**
+         * Replacement by the list for the Latin-1 range, null for none
+         */
+        private final String[] fused;
+        /**
+         * Any of H, X, J
+         */
+        private final boolean escape;
+        /**
+         * Any of U
+         */
+        private final boolean url;
+        /**
+         * Built in modifiers preceding a template modifier, or null
+         */
+        private final Chain prefix;
+        /**
+         * Template modifier, or null for a chain of built in modifiers
+         */
+        private final TemplateModifier custom;
+
+        private final String argument;
+        /**
+         * Modifiers following a template modifier, or null
+         */
+        private final Chain next;
+
+
+        Chain(List<FLAGS> modifiers, String indentation) {
+            super();
+            this.prefix = null;
+            this.custom = null;
+            this.argument = null;
+            this.next = null;
+            this.modifiers = modifiers;
+            this.stages = modifiers.toArray(new FLAGS[modifiers.size()]);
+            this.indentation = indentation;
+            int count = this.stages.length;
+            boolean escape = false, url = false;
+            String[][] tables = new String[count][];
+            for (int s = 0; s < count; s++) {
+                FLAGS stage = this.stages[s];
+                switch (stage) {
+                case H:
+                case X:
+                case J:
+                    escape = true;
+                    break;
+                case U:
+                    url = true;
+                    break;
+                default:
+                    break;
+                }
+                tables[s] = Table(stage, indentation);
+            }
+            this.tables = tables;
+            this.escape = escape;
+            this.url = url;
+            String[] fused = new String[Table];
+            for (char ch = 0; ch < Table; ch++) {
+                String input = String.valueOf(ch);
+                String output = applyModifiersWithIndentation(input, modifiers, indentation);
+                if (!input.equals(output))
+                    fused[ch] = output;
+            }
+            this.fused = fused;
+        }
+        /**
+         * Template modifier in sequence
+         */
+        Chain(Chain prefix, TemplateModifier custom, String argument, Chain next) {
+            super();
+            this.prefix = prefix;
+            this.custom = custom;
+            this.argument = argument;
+            this.next = next;
+            List<FLAGS> modifiers = new ArrayList<FLAGS>();
+            if (null != prefix)
+                modifiers.addAll(prefix.getModifiers());
+            if (null != next)
+                modifiers.addAll(next.getModifiers());
+            this.modifiers = modifiers;
+            this.stages = new FLAGS[0];
+            this.indentation = null;
+            this.tables = new String[0][];
+            this.escape = false;
+            this.url = false;
+            this.fused = new String[Table];
+        }
+
+
+        /**
+         * @return Built in modifiers
+         */
+        public List<FLAGS> getModifiers() {
+            return this.modifiers;
+        }
+        /**
+         * @return Modified input
+         */
+        public String apply(String input) {
+            int len = input.length();
+            if (null == this.custom) {
+                int i = 0;
+                while (i < len && !this.modifies(input.charAt(i)))
+                    i++;
+                if (i == len)
+                    return input;
+            }
+            java.io.StringWriter buffer = new java.io.StringWriter(len + 16);
+            PrintWriter out = new PrintWriter(buffer);
+            this.write(input, out);
+            out.flush();
+            return buffer.toString();
+        }
+        /**
+         * @param buffer Reused for a modified input
+         * @return Modified input
+         */
+        String apply(String input, RenderArena.Chars buffer) {
+            if (null == this.custom) {
+                int i = 0, len = input.length();
+                while (i < len && !this.modifies(input.charAt(i)))
+                    i++;
+                if (i == len)
+                    return input;
+            }
+            buffer.reset();
+            this.write(input, buffer.printer());
+            return buffer.toString();
+        }
+        /**
+         * Write the modified input to the output.
+         */
+        public void write(String input, PrintWriter out) {
+            this.write(input, 0, input.length(), out);
+        }
+        /**
+         * Write the modified input to the output.
+         * @param from Input start offset
+         * @param to Input end offset, exclusive
+         */
+        public void write(String input, int from, int to, PrintWriter out) {
+            if (null != this.custom) {
+                PrintWriter target = (null != this.next)?(this.next.writer(out)):(out);
+                PrintWriter stage = this.custom.writer(this.argument, target);
+                if (null != this.prefix)
+                    this.prefix.write(input, from, to, stage);
+                else
+                    stage.write(input, from, (to-from));
+                stage.close();
+                if (target != out)
+                    target.close();
+                return;
+            }
+            String[] fused = this.fused;
+            int start = from;
+            for (int i = from; i < to; i++) {
+                char ch = input.charAt(i);
+                if (ch < Table) {
+                    String replacement = fused[ch];
+                    if (null != replacement) {
+                        if (start < i)
+                            out.write(input, start, (i-start));
+                        out.write(replacement);
+                        start = (i+1);
+                    }
+                }
+                else if (this.url && Character.MIN_SURROGATE <= ch && ch <= Character.MAX_SURROGATE) {
+                    /*
+                     * URL encoding is by code point
+                     */
+                    if (start < i)
+                        out.write(input, start, (i-start));
+                    out.write(applyModifiersWithIndentation(input.substring(i, to), this.modifiers, this.indentation));
+                    return;
+                }
+                else if (this.url || (this.escape && !Character.isLetterOrDigit(ch))) {
+                    if (start < i)
+                        out.write(input, start, (i-start));
+                    this.emit(0, ch, out);
+                    start = (i+1);
+                }
+            }
+            if (0 == start && to == input.length())
+                out.write(input);
+            else if (start < to)
+                out.write(input, start, (to-start));
+        }
+        /**
+         * Write the modified input to the output.
+         * @param from Input start offset
+         * @param to Input end offset, exclusive
+         */
+        public void write(char[] input, int from, int to, PrintWriter out) {
+            if (null != this.custom) {
+                PrintWriter target = (null != this.next)?(this.next.writer(out)):(out);
+                PrintWriter stage = this.custom.writer(this.argument, target);
+                if (null != this.prefix)
+                    this.prefix.write(input, from, to, stage);
+                else
+                    stage.write(input, from, (to-from));
+                stage.close();
+                if (target != out)
+                    target.close();
+                return;
+            }
+            String[] fused = this.fused;
+            int start = from;
+            for (int i = from; i < to; i++) {
+                char ch = input[i];
+                if (ch < Table) {
+                    String replacement = fused[ch];
+                    if (null != replacement) {
+                        if (start < i)
+                            out.write(input, start, (i-start));
+                        out.write(replacement);
+                        start = (i+1);
+                    }
+                }
+                else if (this.url && Character.MIN_SURROGATE <= ch && ch <= Character.MAX_SURROGATE) {
+                    if (start < i)
+                        out.write(input, start, (i-start));
+                    out.write(applyModifiersWithIndentation(new String(input, i, (to-i)), this.modifiers, this.indentation));
+                    return;
+                }
+                else if (this.url || (this.escape && !Character.isLetterOrDigit(ch))) {
+                    if (start < i)
+                        out.write(input, start, (i-start));
+                    this.emit(0, ch, out);
+                    start = (i+1);
+                }
+            }
+            if (start < to)
+                out.write(input, start, (to-start));
+        }
+        /**
+         * @return Writer applying the modifiers to its input as it's
+         * written to the argument output.  Closing the writer
+         * completes its output without closing the argument output.
+         */
+        public PrintWriter writer(PrintWriter out) {
+            if (null == this.custom)
+                return new PrintWriter(new Filter(this, out, false));
+            else {
+                PrintWriter target = (null != this.next)?(this.next.writer(out)):(out);
+                PrintWriter stage = new PrintWriter(new Stage(this.custom.writer(this.argument, target), target, out));
+                if (null != this.prefix)
+                    return new PrintWriter(new Filter(this.prefix, stage, true));
+                else
+                    return stage;
+            }
+        }
+        /**
+         * A surrogate pair is held by the filter for URL encoding, by
+         * code point.
+         */
+        boolean isCodePoint() {
+            return this.url;
+        }
+        /**
+         * @return The character is replaced
+         */
+        private boolean modifies(char ch) {
+            if (ch < Table)
+                return (null != this.fused[ch]);
+            else
+                return (this.url || (this.escape && !Character.isLetterOrDigit(ch)));
+        }
+        /**
+         * Modify a character from the stage index.
+         */
+        private void emit(int s, char ch, PrintWriter out) {
+            for (int count = this.stages.length; s < count; s++) {
+                if (ch < Table) {
+                    String replacement = this.tables[s][ch];
+                    if (null != replacement) {
+                        this.emit((s+1), replacement, out);
+                        return;
+                    }
+                }
+                else {
+                    switch (this.stages[s]) {
+                    case H:
+                    case X:
+                        if (!Character.isLetterOrDigit(ch)) {
+                            int next = (s+1);
+                            this.emit(next, '&', out);
+                            this.emit(next, '#', out);
+                            int value = ch;
+                            boolean leading = true;
+                            for (int place = 10000; place > 1; place /= 10) {
+                                int digit = (value / place);
+                                if (0 != digit || !leading) {
+                                    this.emit(next, (char)('0' + digit), out);
+                                    leading = false;
+                                }
+                                value -= (digit * place);
+                            }
+                            this.emit(next, (char)('0' + value), out);
+                            this.emit(next, ';', out);
+                            return;
+                        }
+                        break;
+                    case J:
+                        if (!Character.isLetterOrDigit(ch)) {
+                            int next = (s+1);
+                            this.emit(next, '\\', out);
+                            this.emit(next, 'u', out);
+                            this.emit(next, Hex[ch >> 12], out);
+                            this.emit(next, Hex[(ch >> 8) & 0xf], out);
+                            this.emit(next, Hex[(ch >> 4) & 0xf], out);
+                            this.emit(next, Hex[ch & 0xf], out);
+                            return;
+                        }
+                        break;
+                    case U:
+                        int next = (s+1);
+                        if (ch < 0x800) {
+                            this.percent(next, (0xC0 | (ch >> 6)), out);
+                        }
+                        else {
+                            this.percent(next, (0xE0 | (ch >> 12)), out);
+                            this.percent(next, (0x80 | ((ch >> 6) & 0x3F)), out);
+                        }
+                        this.percent(next, (0x80 | (ch & 0x3F)), out);
+                        return;
+                    default:
+                        break;
+                    }
+                }
+            }
+            out.write(ch);
+        }
+        private void emit(int s, String string, PrintWriter out) {
+            if (s == this.stages.length)
+                out.write(string);
+            else {
+                for (int cc = 0, count = string.length(); cc < count; cc++)
+                    this.emit(s, string.charAt(cc), out);
+            }
+        }
+        private void percent(int s, int octet, PrintWriter out) {
+            this.emit(s, '%', out);
+            this.emit(s, HexUpper[octet >> 4], out);
+            this.emit(s, HexUpper[octet & 0xf], out);
+        }
+
+        private final static String[] Table(FLAGS stage, String indentation) {
+            String[] table = new String[Table];
+            for (char ch = 0; ch < Table; ch++) {
+                String input = String.valueOf(ch);
+                String output = applyModifier(input, stage, indentation);
+                if (!input.equals(output))
+                    table[ch] = output;
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Modifier chain output filter.
+     */
+    private final static class Filter
+        extends java.io.Writer
+    {
+        private final Chain chain;
+
+        private final PrintWriter out;
+        /**
+         * High surrogate from the end of the previous write, or zero
+         */
+        private char pending;
+        /**
+         * Close the output with this filter, an internal stage
+         */
+        private final boolean closing;
+        /**
+         * Input of write(int), and a surrogate pair
+         */
+        private final char[] single = new char[1], pair = new char[2];
+
+
+        Filter(Chain chain, PrintWriter out, boolean closing) {
+            super();
+            this.chain = chain;
+            this.out = out;
+            this.closing = closing;
+        }
+
+
+        public void write(int ch) {
+            this.single[0] = (char)ch;
+            this.write(this.single, 0, 1);
+        }
+        public void write(char[] cbuf, int off, int len) {
+            if (0 < len) {
+                int end = (off + len);
+                if (0 != this.pending)
+                    off += this.pending(Character.isLowSurrogate(cbuf[off])?(cbuf[off]):(0));
+                if (off < end && this.chain.isCodePoint() && Character.isHighSurrogate(cbuf[end-1])) {
+                    this.pending = cbuf[end-1];
+                    end -= 1;
+                }
+                if (off < end)
+                    this.chain.write(cbuf, off, end, this.out);
+            }
+        }
+        public void write(String str) {
+            this.write(str, 0, str.length());
+        }
+        public void write(String str, int off, int len) {
+            if (0 < len) {
+                int end = (off + len);
+                if (0 != this.pending)
+                    off += this.pending(Character.isLowSurrogate(str.charAt(off))?(str.charAt(off)):(0));
+                if (off < end && this.chain.isCodePoint() && Character.isHighSurrogate(str.charAt(end-1))) {
+                    this.pending = str.charAt(end-1);
+                    end -= 1;
+                }
+                if (off < end)
+                    this.chain.write(str, off, end, this.out);
+            }
+        }
+        /**
+         * Write the pending high surrogate, with the low surrogate
+         * when not zero.
+         * @return Input consumed, one for the low surrogate
+         */
+        private int pending(char low) {
+            char[] pair = this.pair;
+            pair[0] = this.pending;
+            this.pending = 0;
+            if (0 != low) {
+                pair[1] = low;
+                this.chain.write(pair, 0, 2, this.out);
+                return 1;
+            }
+            else {
+                this.chain.write(pair, 0, 1, this.out);
+                return 0;
+            }
+        }
+        public void flush() {
+            this.out.flush();
+        }
+        /**
+         * Complete output, and don't close the output unless it's an
+         * internal stage.
+         */
+        public void close() {
+            if (0 != this.pending)
+                this.pending((char)0);
+            if (this.closing)
+                this.out.close();
+        }
+    }
+    /**
+     * Template modifier stage, completing the modifiers that follow
+     * it on close.
+     */
+    private final static class Stage
+        extends java.io.Writer
+    {
+        private final PrintWriter stage, target, out;
+
+
+        Stage(PrintWriter stage, PrintWriter target, PrintWriter out) {
+            super();
+            this.stage = stage;
+            this.target = target;
+            this.out = out;
+        }
+
+
+        public void write(int ch) {
+            this.stage.write(ch);
+        }
+        public void write(char[] cbuf, int off, int len) {
+            this.stage.write(cbuf, off, len);
+        }
+        public void write(String str, int off, int len) {
+            this.stage.write(str, off, len);
+        }
+        public void flush() {
+            this.stage.flush();
+        }
+        public void close() {
+            this.stage.close();
+            if (this.target != this.out)
+                this.target.close();
+        }
+    }
+
+    /**
+     * @param indentation Include indentation, or null
+     * @return Compiled modifiers, or null for none
+     */
+    public static Chain compile(List<FLAGS> modifiers, String indentation) {
+        if (modifiers.isEmpty())
+            return null;
+        else
+            return new Chain(modifiers, (null != indentation)?(indentation):("\n"));
+    }
+    /**
+     * Resolve built in and registered modifiers.
+     * 
+     * @param split Name and modifiers, as "NAME:h:truncate=20"
+     * @param indentation Include indentation, or null
+     * @return Compiled modifiers, or null for none
+     * @exception java.lang.IllegalArgumentException For an unknown
+     * modifier
+     */
+    public static Chain compile(String[] split, String indentation) {
+        return compile(split, 1, indentation);
+    }
+    private static Chain compile(String[] split, int from, String indentation) {
+        List<FLAGS> list = new ArrayList<FLAGS>(4);
+        for (int i = from; i < split.length; i++) {
+            String name = split[i];
+            FLAGS flag = parseFlag(name);
+            if (null != flag)
+                list.add(flag);
+            else {
+                String argument = null;
+                int eq = name.indexOf('=');
+                if (-1 != eq) {
+                    argument = name.substring(eq+1);
+                    name = name.substring(0, eq);
+                }
+                TemplateModifier custom = lookup(name);
+                if (null == custom)
+                    throw new IllegalArgumentException("Unknown modifier '"+name+"'");
+                else
+                    return new Chain(compile(list, indentation), custom, argument, compile(split, (i+1), indentation));
+            }
+        }
+        if (indentation != null && !indentation.equals("\n")) {
+            list.add(FLAGS.INDENT);
+        }
+        return compile(list, indentation);
     }
 
     public static List<FLAGS> parseModifiers(String[] split) {
@@ -104,19 +883,65 @@ public final class Modifiers {
      * @return The escaped string
      */
     public static String jsEscape(String unescaped) {
-        final String also_safe = "_ ";
-        StringBuilder escaped = new StringBuilder();
-        for (int i = 0; i < unescaped.length(); i++) {
+        int len = unescaped.length();
+        int i = 0;
+        while (i < len && JsSafe(unescaped.charAt(i)))
+            i++;
+        if (i == len)
+            return unescaped;
+        else {
+            StringBuilder escaped = new StringBuilder(len + 16);
+            escaped.append(unescaped, 0, i);
+            for (; i < len; i++) {
+                char ch = unescaped.charAt(i);
+                if (JsSafe(ch)) {
+                    escaped.append(ch);
+                } else if (ch < 256) {
+                    escaped.append('\\').append('x');
+                    if (ch > 0xf)
+                        escaped.append(Hex[ch >> 4]);
+                    escaped.append(Hex[ch & 0xf]);
+                } else {
+                    escaped.append('\\').append('u');
+                    escaped.append(Hex[ch >> 12]);
+                    escaped.append(Hex[(ch >> 8) & 0xf]);
+                    escaped.append(Hex[(ch >> 4) & 0xf]);
+                    escaped.append(Hex[ch & 0xf]);
+                }
+            }
+            return escaped.toString();
+        }
+    }
+
+    /**
+     * Write the JavaScript string literal escape of the argument.
+     */
+    public static void jsEscape(String unescaped, PrintWriter out) {
+        int start = 0;
+        for (int i = 0, len = unescaped.length(); i < len; i++) {
             char ch = unescaped.charAt(i);
-            if (Character.isLetterOrDigit(ch) || also_safe.indexOf(ch) != -1) {
-                escaped.append(ch);
-            } else if (ch < 256) {
-                escaped.append("\\x").append(Integer.toHexString(ch));
-            } else {
-                escaped.append("\\u").append(String.format("%04x", (int) ch));
+            if (!JsSafe(ch)) {
+                if (start < i)
+                    out.write(unescaped, start, (i-start));
+                start = (i+1);
+
+                out.write('\\');
+                if (ch < 256) {
+                    out.write('x');
+                    if (ch > 0xf)
+                        out.write(Hex[ch >> 4]);
+                    out.write(Hex[ch & 0xf]);
+                }
+                else {
+                    out.write('u');
+                    out.write(Hex[ch >> 12]);
+                    out.write(Hex[(ch >> 8) & 0xf]);
+                    out.write(Hex[(ch >> 4) & 0xf]);
+                    out.write(Hex[ch & 0xf]);
+                }
             }
         }
-        return escaped.toString();
+        write(unescaped, start, out);
     }
 
     /**
@@ -135,11 +960,94 @@ public final class Modifiers {
      * @return The escaped value.
      */
     private static String urlEncode(String unescaped) {
-        try {
-            return URLEncoder.encode(unescaped, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+        int len = unescaped.length();
+        int i = 0;
+        while (i < len && UrlSafe(unescaped.charAt(i)))
+            i++;
+        if (i == len)
+            return unescaped;
+        else {
+            /*
+             * At most nine characters for each remaining character
+             */
+            char[] escaped = new char[i + ((len - i) * 9)];
+            unescaped.getChars(0, i, escaped, 0);
+            int ofs = i;
+            for (; i < len; i++) {
+                char ch = unescaped.charAt(i);
+                if (UrlSafe(ch))
+                    escaped[ofs++] = ch;
+                else if (' ' == ch)
+                    escaped[ofs++] = '+';
+                else {
+                    int cp = ch;
+                    if (Character.isHighSurrogate(ch) && (i+1) < len && Character.isLowSurrogate(unescaped.charAt(i+1))) {
+                        cp = Character.toCodePoint(ch, unescaped.charAt(i+1));
+                        i++;
+                    }
+                    else if (Character.MIN_SURROGATE <= ch && ch <= Character.MAX_SURROGATE)
+                        cp = '?';
+                    /*
+                     * UTF-8
+                     */
+                    if (cp < 0x80)
+                        ofs = Percent(cp, escaped, ofs);
+                    else if (cp < 0x800) {
+                        ofs = Percent(0xC0 | (cp >> 6), escaped, ofs);
+                        ofs = Percent(0x80 | (cp & 0x3F), escaped, ofs);
+                    }
+                    else if (cp < 0x10000) {
+                        ofs = Percent(0xE0 | (cp >> 12), escaped, ofs);
+                        ofs = Percent(0x80 | ((cp >> 6) & 0x3F), escaped, ofs);
+                        ofs = Percent(0x80 | (cp & 0x3F), escaped, ofs);
+                    }
+                    else {
+                        ofs = Percent(0xF0 | (cp >> 18), escaped, ofs);
+                        ofs = Percent(0x80 | ((cp >> 12) & 0x3F), escaped, ofs);
+                        ofs = Percent(0x80 | ((cp >> 6) & 0x3F), escaped, ofs);
+                        ofs = Percent(0x80 | (cp & 0x3F), escaped, ofs);
+                    }
+                }
+            }
+            return new String(escaped, 0, ofs);
+        }
+    }
+    private static int Percent(int octet, char[] escaped, int ofs) {
+        escaped[ofs] = '%';
+        escaped[ofs+1] = HexUpper[octet >> 4];
+        escaped[ofs+2] = HexUpper[octet & 0xf];
+        return (ofs+3);
+    }
+    /**
+     * Characters not modified by J
+     */
+    private static boolean JsSafe(char ch) {
+        return (Character.isLetterOrDigit(ch) || ch == '_' || ch == ' ');
+    }
+    /**
+     * Characters not modified by U, as {@link java.net.URLEncoder}
+     */
+    private static boolean UrlSafe(char ch) {
+        return ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+                || ch == '.' || ch == '-' || ch == '*' || ch == '_');
+    }
+
+    /**
+     * Write the XML escape of the argument.
+     */
+    public static void xmlEscape(String unescaped, PrintWriter out) {
+        int start = 0;
+        for (int i = 0, len = unescaped.length(); i < len; i++) {
+            char ch = unescaped.charAt(i);
+            if (!Character.isLetterOrDigit(ch) && ch != ' ') {
+                if (start < i)
+                    out.write(unescaped, start, (i-start));
+                start = (i+1);
+
+                entity(ch, out);
+            }
         }
+        write(unescaped, start, out);
     }
 
     /**
@@ -188,6 +1096,75 @@ public final class Modifiers {
         return escaped.toString();
     }
 
+    /**
+     * Write the HTML escape of the argument.
+     */
+    public static void htmlEscape(String unescaped, PrintWriter out) {
+        int start = 0;
+        for (int i = 0, len = unescaped.length(); i < len; i++) {
+            char ch = unescaped.charAt(i);
+            if (!Character.isLetterOrDigit(ch) && ch != ' ' && ch != '\r' && ch != '\n' && ch != '\t') {
+                if (start < i)
+                    out.write(unescaped, start, (i-start));
+                start = (i+1);
+
+                if (ch == '&')
+                    out.write("&amp;");
+                else if (ch == '"')
+                    out.write("&quot;");
+                else
+                    entity(ch, out);
+            }
+        }
+        write(unescaped, start, out);
+    }
+
+    /**
+     * Write the input replacing each occurance of the character.
+     */
+    private static void replace(String input, char ch, String replacement, PrintWriter out) {
+        int start = 0;
+        for (int i = input.indexOf(ch); -1 != i; i = input.indexOf(ch, start)) {
+            if (start < i)
+                out.write(input, start, (i-start));
+            out.write(replacement);
+            start = (i+1);
+        }
+        write(input, start, out);
+    }
+    /**
+     * Write the tail of the input from start.
+     */
+    private static void write(String input, int start, PrintWriter out) {
+        if (0 == start)
+            out.write(input);
+        else if (start < input.length())
+            out.write(input, start, (input.length()-start));
+    }
+    /**
+     * Write the decimal numeric character reference.
+     */
+    private static void entity(char ch, PrintWriter out) {
+        out.write('&');
+        out.write('#');
+        int value = ch;
+        boolean leading = true;
+        for (int place = 10000; place > 1; place /= 10) {
+            int digit = (value / place);
+            if (0 != digit || !leading) {
+                out.write('0' + digit);
+                leading = false;
+            }
+            value -= (digit * place);
+        }
+        out.write('0' + value);
+        out.write(';');
+    }
+
+    private final static char[] Hex = "0123456789abcdef".toCharArray();
+
+    private final static char[] HexUpper = "0123456789ABCDEF".toCharArray();
+
     private Modifiers() {
         super();
     }
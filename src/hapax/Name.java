@@ -32,6 +32,14 @@ import java.util.StringTokenizer;
  * A section or variable name parsed into a list of components
  * delimited by solidus '/' (slash).
  * 
+ * Component names are interned, and resolution reads sections by
+ * index without parsing, so a name parsed with a template is
+ * resolved by its nodes in every render.  A template tag tries its
+ * name as a literal key before resolving it as a path, so a key
+ * containing '/' or '[' is found as before.  A row of a section
+ * inherited by a {@link TemplateDictionary} is read without copying
+ * the section.
+ * 
  * @author jdp
  */
 public class Name 
@@ -60,13 +68,13 @@ public class Name
             StringTokenizer strtok = new StringTokenizer(source,"][");
             switch (strtok.countTokens()){
             case 1:
-                this.component = strtok.nextToken();
+                this.component = strtok.nextToken().intern();
                 this.term = null;
                 this.index = 0;
                 this.source = component;
                 break;
             case 2:
-                this.component = strtok.nextToken();
+                this.component = strtok.nextToken().intern();
                 this.term = strtok.nextToken();
                 int index;
                 try {
@@ -209,22 +217,49 @@ public class Name
         else
             throw new ArrayIndexOutOfBoundsException(String.valueOf(idx));
     }
+    /**
+     * @return Last component
+     */
+    public final Component getLast(){
+        return this.path[this.count-1];
+    }
     public String getVariable(TemplateDataDictionary map){
+        map = this.getScope(map);
+        if (null != map)
+            return this.getVariable(this.getLast(),map);
+        else
+            return null;
+    }
+    /**
+     * @return Variable value as a String or Number, or null
+     */
+    public Object getVariableValue(TemplateDataDictionary map){
+        map = this.getScope(map);
+        if (null != map)
+            return TemplateDictionary.VariableValue(map,this.getLast().component);
+        else
+            return null;
+    }
+    /**
+     * @return Dictionary addressed by all components
+     */
+    public TemplateDataDictionary getSection(TemplateDataDictionary map){
         Component[] path = this.path;
-        for (int cc = 0, count = this.count, term = (count-1); null != map && cc < count; cc++){
+        for (int cc = 0, count = this.count; null != map && cc < count; cc++){
             Component c = path[cc];
-            if (cc < term)
-                map = this.getSection(c,map);
-            else
-                return this.getVariable(c,map);
+            map = this.getSection(c,map);
         }
-        return null;
+        return map;
     }
-    public TemplateDataDictionary getSection(TemplateDataDictionary map){
+    /**
+     * @return Dictionary addressed by components preceding the last,
+     * which is the argument for an identity
+     */
+    public TemplateDataDictionary getScope(TemplateDataDictionary map){
         Component[] path = this.path;
-        for (int cc = 0, count = this.count; null != map && cc < count; cc++){
+        for (int cc = 0, term = (this.count-1); null != map && cc < term; cc++){
             Component c = path[cc];
-            map = this.getSection(c,getSection(map));
+            map = this.getSection(c,map);
         }
         return map;
     }
@@ -232,6 +267,9 @@ public class Name
         return map.getVariable(c.component);
     }
     protected TemplateDataDictionary getSection(Component c, TemplateDataDictionary map){
+        if (map instanceof TemplateDictionary)
+            return ((TemplateDictionary)map).getSectionRow(c.component,c.index);
+
         List<TemplateDataDictionary> section = map.getSection(c.component);
         if (null != section){
             if (c.index < section.size())
@@ -256,4 +294,27 @@ public class Name
     public final java.util.Iterator<Component> iterator(){
         return new Iterator(this.path);
     }
+
+    /**
+     * @return The argument has a path or index syntax
+     */
+    public final static boolean IsPath(String name){
+        return (-1 != name.indexOf('/') || -1 != name.indexOf('['));
+    }
+    /**
+     * @return Name for a template variable or section, or null for a
+     * name without path syntax, or not parsed as a path
+     */
+    public final static Name Path(String name){
+        if (IsPath(name)){
+            try {
+                Name path = new Name(name);
+                if (0 != path.count)
+                    return path;
+            }
+            catch (IllegalArgumentException exc){
+            }
+        }
+        return null;
+    }
 }
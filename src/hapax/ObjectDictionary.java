@@ -0,0 +1,407 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only dictionary over a Java bean, record or map, reading
+ * its properties when the template references them.
+ * 
+ * The variable name <code>FIRST_NAME</code> or
+ * <code>firstName</code> is the value of a public getter
+ * <code>getFirstName()</code> or boolean <code>isFirstName()</code>,
+ * of the accessor <code>firstName()</code> of a record component, or
+ * of the map key of the same name.  No other method is called by a
+ * template.  Names are compared ignoring case and underscores.  The
+ * accessors of a class are resolved once, and shared by every
+ * dictionary over an instance of that class.
+ * 
+ * A value is converted to text when it's rendered.  As a section, a
+ * list, array or other collection is iterated with a dictionary over
+ * each of its elements, and the value of an element that is a string,
+ * number or other scalar is the variable named by the section, as in
+ * <code>{{#TAGS}}{{TAGS}} {{/TAGS}}</code>; another map or object is
+ * iterated once with a
+ * dictionary over the value; a boolean is visible when true; and a
+ * null value or empty collection is not visible.
+ * 
+ * @author jdp
+ */
+public final class ObjectDictionary
+    extends ReadOnlyDictionary
+{
+    /**
+     * Property accessors of a class.
+     */
+    private final static class Accessors
+        extends Object
+    {
+        private final static Method None;
+        static {
+            try {
+                None = Object.class.getMethod("hashCode");
+            }
+            catch (NoSuchMethodException exc){
+                throw new Error(exc);
+            }
+        }
+
+        private final static ConcurrentHashMap<Class<?>,Accessors> Classes = new ConcurrentHashMap<Class<?>,Accessors>();
+
+        static Accessors For(Class<?> type){
+            Accessors accessors = Classes.get(type);
+            if (null == accessors){
+                accessors = new Accessors(type);
+                Accessors previous = Classes.putIfAbsent(type,accessors);
+                if (null != previous)
+                    return previous;
+            }
+            return accessors;
+        }
+
+
+        /**
+         * By normalized name
+         */
+        private final HashMap<String,Method> properties = new HashMap<String,Method>();
+        /**
+         * By template name
+         */
+        private final ConcurrentHashMap<String,Method> names = new ConcurrentHashMap<String,Method>();
+
+
+        private Accessors(Class<?> type){
+            super();
+            java.util.Set<String> components = RecordComponents(type);
+            for (Method method : type.getMethods()){
+                if (Object.class != method.getDeclaringClass()
+                    && 0 == method.getParameterTypes().length
+                    && Void.TYPE != method.getReturnType()
+                    && !Modifier.isStatic(method.getModifiers()))
+                {
+                    String name = method.getName();
+                    Class<?> returns = method.getReturnType();
+                    String property;
+                    boolean getter;
+                    if (3 < name.length() && name.startsWith("get")){
+                        property = name.substring(3);
+                        getter = true;
+                    }
+                    else if (2 < name.length() && name.startsWith("is")
+                             && (Boolean.TYPE == returns || Boolean.class == returns))
+                    {
+                        property = name.substring(2);
+                        getter = true;
+                    }
+                    else if (components.contains(name)){
+                        property = name;
+                        getter = false;
+                    }
+                    else
+                        continue;
+
+                    property = Normalize(property);
+                    if ((getter || !this.properties.containsKey(property)) && Accessible(method))
+                        this.properties.put(property,method);
+                }
+            }
+        }
+        /**
+         * @return A public method of a non-public class is accessible
+         */
+        private static boolean Accessible(Method method){
+            if (Modifier.isPublic(method.getDeclaringClass().getModifiers()))
+                return true;
+            else {
+                try {
+                    method.setAccessible(true);
+                    return true;
+                }
+                catch (RuntimeException exc){
+                    /*
+                     * SecurityException, or the InaccessibleObjectException
+                     * of a module that doesn't open the package
+                     */
+                    return false;
+                }
+            }
+        }
+        /**
+         * @return Accessor names of a record, which are its component
+         * names, or empty for another class or a runtime without
+         * records
+         */
+        private static java.util.Set<String> RecordComponents(Class<?> type){
+            java.util.Set<String> names = new java.util.HashSet<String>();
+            try {
+                Object[] components = (Object[])Class.class.getMethod("getRecordComponents").invoke(type);
+                if (null != components){
+                    for (Object component : components){
+                        names.add((String)component.getClass().getMethod("getName").invoke(component));
+                    }
+                }
+            }
+            catch (NoSuchMethodException exc){
+            }
+            catch (IllegalAccessException exc){
+            }
+            catch (InvocationTargetException exc){
+            }
+            return names;
+        }
+
+
+        Method get(String name){
+            Method method = this.names.get(name);
+            if (null == method){
+                method = this.properties.get(Normalize(name));
+                if (null == method)
+                    method = None;
+                this.names.put(name,method);
+            }
+            if (None == method)
+                return null;
+            else
+                return method;
+        }
+    }
+
+
+    private final Object bean;
+
+
+    public ObjectDictionary(Object bean){
+        this(bean,null);
+    }
+    public ObjectDictionary(Object bean, TemplateDataDictionary parent){
+        super(parent);
+        if (null != bean)
+            this.bean = bean;
+        else
+            throw new IllegalArgumentException();
+    }
+
+
+    public Object getBean(){
+        return this.bean;
+    }
+    protected String lookupVariable(String name){
+        Object value = this.lookup(name);
+        if (null == value || value instanceof String)
+            return (String)value;
+        else
+            return value.toString();
+    }
+    /**
+     * A property of the object is not inherited or synthesized from
+     * a variable, so that a false or empty value hides the section.
+     */
+    public List<TemplateDataDictionary> getSection(String sectionName){
+        Object value = this.lookup(sectionName);
+        if (null == value)
+            return super.getSection(sectionName);
+        else
+            return this.section(sectionName,value);
+    }
+    protected Object lookupVariableValue(String name){
+        Object value = this.lookup(name);
+        if (null == value || value instanceof String || value instanceof Number)
+            return value;
+        else
+            return value.toString();
+    }
+    protected List<TemplateDataDictionary> lookupSection(String sectionName){
+        return this.section(sectionName,this.lookup(sectionName));
+    }
+    public TemplateDataDictionary clone(TemplateDataDictionary parent){
+        return new ObjectDictionary(this.bean,parent);
+    }
+    public String toString(){
+        return this.bean.toString();
+    }
+
+    /**
+     * @param name Section name, defining the value of a scalar element
+     */
+    private List<TemplateDataDictionary> section(String name, Object value){
+        if (null == value)
+            return null;
+        else if (value instanceof Boolean){
+            if (((Boolean)value).booleanValue())
+                return Synthetic;
+            else
+                return null;
+        }
+        else if (value instanceof List && value instanceof RandomAccess){
+            List<?> list = (List<?>)value;
+            if (list.isEmpty())
+                return null;
+            else
+                return new Rows(list,this,name);
+        }
+        else if (value.getClass().isArray()){
+            if (0 == Array.getLength(value))
+                return null;
+            else
+                return new Rows(value,this,name);
+        }
+        else if (value instanceof Collection){
+            Collection<?> collection = (Collection<?>)value;
+            if (collection.isEmpty())
+                return null;
+            else {
+                List<TemplateDataDictionary> section = new ArrayList<TemplateDataDictionary>(collection.size());
+                for (Object item : collection){
+                    section.add(Row(item,this,name));
+                }
+                return section;
+            }
+        }
+        else if (IsScalar(value))
+            return Synthetic;
+        else {
+            List<TemplateDataDictionary> section = new ArrayList<TemplateDataDictionary>(1);
+            section.add(new ObjectDictionary(value,this));
+            return section;
+        }
+    }
+
+    private Object lookup(String name){
+        Object bean = this.bean;
+        if (bean instanceof Map)
+            return ((Map<?,?>)bean).get(name);
+        else {
+            Method method = Accessors.For(bean.getClass()).get(name);
+            if (null == method)
+                return null;
+            else {
+                try {
+                    return method.invoke(bean);
+                }
+                catch (IllegalAccessException exc){
+                    throw new RuntimeException(name,exc);
+                }
+                catch (InvocationTargetException exc){
+                    throw new RuntimeException(name,exc.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Section data over a random access list or an array, adapting
+     * elements as they are iterated.
+     */
+    private final static class Rows
+        extends AbstractList<TemplateDataDictionary>
+        implements RandomAccess
+    {
+        private final Object items;
+
+        private final int count;
+
+        private final TemplateDataDictionary parent;
+
+        private final String name;
+
+
+        Rows(List<?> items, TemplateDataDictionary parent, String name){
+            super();
+            this.items = items;
+            this.count = items.size();
+            this.parent = parent;
+            this.name = name;
+        }
+        Rows(Object array, TemplateDataDictionary parent, String name){
+            super();
+            this.items = array;
+            this.count = Array.getLength(array);
+            this.parent = parent;
+            this.name = name;
+        }
+
+
+        public TemplateDataDictionary get(int index){
+            if (-1 < index && index < this.count){
+                Object items = this.items;
+                if (items instanceof List)
+                    return Row(((List<?>)items).get(index),this.parent,this.name);
+                else
+                    return Row(Array.get(items,index),this.parent,this.name);
+            }
+            else
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        public int size(){
+            return this.count;
+        }
+    }
+
+    /**
+     * @param name Section name, defining the value of a scalar item
+     */
+    private final static TemplateDataDictionary Row(Object item, TemplateDataDictionary parent, String name){
+        if (item instanceof TemplateDataDictionary)
+            return ((TemplateDataDictionary)item).clone(parent);
+        else if (null == item)
+            return new ObjectDictionary(Empty,parent);
+        else if (IsScalar(item))
+            return new ObjectDictionary(java.util.Collections.singletonMap(name,item),parent);
+        else
+            return new ObjectDictionary(item,parent);
+    }
+    private final static boolean IsScalar(Object value){
+        return (value instanceof CharSequence || value instanceof Number
+                || value instanceof Character || value instanceof Enum
+                || value instanceof java.util.Date);
+    }
+    /**
+     * Names compare ignoring case and underscores
+     */
+    private final static String Normalize(String name){
+        StringBuilder string = new StringBuilder(name.length());
+        for (int cc = 0, count = name.length(); cc < count; cc++){
+            char ch = name.charAt(cc);
+            if ('_' != ch)
+                string.append(Character.toLowerCase(ch));
+        }
+        return string.toString();
+    }
+
+    private final static Map<String,Object> Empty = java.util.Collections.emptyMap();
+}
@@ -0,0 +1,171 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class of dictionaries that are not modified by rendering.
+ * 
+ * A subclass defines the variables and sections found in the
+ * dictionary itself, and this class inherits variables and sections
+ * from the parent in the manner of {@link TemplateDictionary}.
+ * Inherited sections are not cached in the dictionary, and {@link
+ * #renderComplete()} has no effect.  The modifiers of {@link
+ * TemplateDictionary} throw {@link UnsupportedOperationException}.
+ * 
+ * @author jdp
+ */
+public abstract class ReadOnlyDictionary
+    extends Object
+    implements TemplateValueDictionary
+{
+    /**
+     * A section synthesized from a variable is iterated once in the
+     * scope of the dictionary.
+     */
+    protected final static List<TemplateDataDictionary> Synthetic = Collections.emptyList();
+
+
+    protected final TemplateDataDictionary parent;
+
+    protected final boolean annotations;
+
+
+    protected ReadOnlyDictionary(TemplateDataDictionary parent){
+        this(parent, (null != parent && parent.debugAnnotationsEnabled()));
+    }
+    protected ReadOnlyDictionary(TemplateDataDictionary parent, boolean annotations){
+        super();
+        this.parent = parent;
+        this.annotations = annotations;
+    }
+
+
+    /**
+     * @return Variable defined in this dictionary, or null.
+     */
+    protected abstract String lookupVariable(String name);
+    /**
+     * @return Variable defined in this dictionary as a String or
+     * Number, or null.  By default the value of {@link
+     * #lookupVariable(String)}.
+     */
+    protected Object lookupVariableValue(String name){
+        return this.lookupVariable(name);
+    }
+    /**
+     * @return Section defined in this dictionary, with section data
+     * in the scope of this dictionary, or null.
+     */
+    protected abstract List<TemplateDataDictionary> lookupSection(String sectionName);
+    /**
+     * @return Dictionary sharing the content of this dictionary in
+     * the scope of the argument parent.
+     */
+    public abstract TemplateDataDictionary clone(TemplateDataDictionary parent);
+
+    /**
+     * No effect.
+     */
+    public void renderComplete(){
+    }
+    /**
+     * @return This dictionary
+     */
+    public TemplateDataDictionary clone(){
+        return this;
+    }
+    public TemplateDataDictionary getParent(){
+        return this.parent;
+    }
+    public boolean hasVariable(String name){
+        if (null != this.lookupVariable(name))
+            return true;
+        else if (null != this.parent)
+            return this.parent.hasVariable(name);
+        else
+            return false;
+    }
+    public String getVariable(String name){
+        String value = this.lookupVariable(name);
+        if (null != value)
+            return value;
+        else if (null != this.parent)
+            return this.parent.getVariable(name);
+        else
+            return "";
+    }
+    public Object getVariableValue(String name){
+        Object value = this.lookupVariableValue(name);
+        if (null != value)
+            return value;
+        else if (null != this.parent)
+            return TemplateDictionary.VariableValue(this.parent,name);
+        else
+            return null;
+    }
+    public List<TemplateDataDictionary> getSection(String sectionName){
+        List<TemplateDataDictionary> section = this.lookupSection(sectionName);
+        if (null != section)
+            return section;
+        else {
+            /*
+             * Inherit section
+             */
+            TemplateDataDictionary parent = this.parent;
+            if (null != parent){
+                List<TemplateDataDictionary> ancestor = parent.getSection(sectionName);
+                if (null != ancestor)
+                    return TemplateDictionary.SectionClone(this,ancestor);
+            }
+            /*
+             * Synthesize section.  An ancestor has no section,
+             * including one synthesized from its variables.
+             */
+            if (null != this.lookupVariable(sectionName))
+                return Synthetic;
+            else
+                return null;
+        }
+    }
+    public void setVariable(String name, String value){
+        throw new UnsupportedOperationException(name);
+    }
+    public List<TemplateDataDictionary> showSection(String sectionName){
+        throw new UnsupportedOperationException(sectionName);
+    }
+    public TemplateDataDictionary addSection(String sectionName){
+        throw new UnsupportedOperationException(sectionName);
+    }
+    public void enableDebugAnnotations(){
+        throw new UnsupportedOperationException();
+    }
+    public boolean debugAnnotationsEnabled(){
+        return this.annotations;
+    }
+}
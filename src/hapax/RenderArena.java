@@ -0,0 +1,412 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Render state reused by the renders of a thread: the frame chain,
+ * the escape cache, the character buffer of {@link
+ * Template#renderToString(TemplateDataDictionary)}, and the encoder of
+ * {@link Template#renderToBuffers Template.renderToBuffers}.  A warmed
+ * template renders into the state retained from the previous render
+ * on the same thread, rather than allocating it again.
+ * 
+ * An arena is held by one render at a time.  A render nested within
+ * another on the same thread, for example by a {@link
+ * TemplateModifier}, employs a temporary arena.
+ * 
+ * The arena of a thread is held by a thread local, which would hold
+ * the class loader of this class from a thread that outlives the
+ * application, as in a servlet container.  Such an application calls
+ * {@link #Release()} on each thread when it's done rendering there,
+ * for instance at the end of each request.
+ * 
+ * @see RenderFrame#getArena()
+ * @author jdp
+ */
+public final class RenderArena
+    extends Object
+{
+    /**
+     * Largest character buffer retained between renders
+     */
+    public final static int Retain = 0x100000;
+
+    private final static ThreadLocal<RenderArena> Arenas = new ThreadLocal<RenderArena>();
+
+    /**
+     * Drop the arena of the current thread.  A render in progress on
+     * the thread completes, and the next render allocates a new arena.
+     */
+    public static void Release(){
+        Arenas.remove();
+    }
+    /**
+     * @return The arena of the current thread, or a temporary arena
+     * when the thread's arena is in use.  Each acquire is followed by
+     * a release.
+     */
+    static RenderArena Acquire(){
+        RenderArena arena = Arenas.get();
+        if (null == arena){
+            arena = new RenderArena();
+            Arenas.set(arena);
+        }
+        else if (arena.busy)
+            return new RenderArena();
+
+        arena.busy = true;
+        return arena;
+    }
+
+
+    private boolean busy;
+
+    private RenderFrame frame, cached;
+
+    private final Chars chars = new Chars();
+
+    private Bytes bytes;
+
+
+    private RenderArena(){
+        super();
+    }
+
+
+    /**
+     * @param estimate Expected output length, or zero
+     * @return Character output buffer, empty
+     */
+    PrintWriter writer(int estimate){
+        this.chars.reset();
+        this.chars.reserve(estimate);
+        return this.chars.printer();
+    }
+    /**
+     * @return Length of the character output buffer content
+     */
+    int length(){
+        return this.chars.length();
+    }
+    /**
+     * @return Content of the character output buffer
+     */
+    String output(){
+        return this.chars.toString();
+    }
+    /**
+     * @return Writer encoding into the argument output
+     */
+    PrintWriter writer(Charset charset, RenderOutput output){
+        Bytes bytes = this.bytes;
+        if (null == bytes){
+            bytes = new Bytes();
+            this.bytes = bytes;
+        }
+        return bytes.open(charset,output);
+    }
+    /**
+     * Complete the encoding of the output.
+     */
+    void encoded(){
+        this.bytes.complete();
+    }
+    /**
+     * @param escapeCaching Top frame with an escape cache
+     * @return Top frame for a render
+     */
+    RenderFrame frame(boolean escapeCaching){
+        if (escapeCaching){
+            RenderFrame frame = this.cached;
+            if (null == frame){
+                frame = new RenderFrame(this,new EscapeCache());
+                this.cached = frame;
+            }
+            return frame;
+        }
+        else {
+            RenderFrame frame = this.frame;
+            if (null == frame){
+                frame = new RenderFrame(this,null);
+                this.frame = frame;
+            }
+            return frame;
+        }
+    }
+    /**
+     * Drop references to the dictionaries and values of the render,
+     * and return the arena to its thread.
+     */
+    void release(){
+        if (null != this.frame)
+            this.frame.clear();
+        if (null != this.cached)
+            this.cached.clear();
+        this.chars.trim(Retain);
+        if (null != this.bytes)
+            this.bytes.clear();
+        this.busy = false;
+    }
+
+
+    /**
+     * Unsynchronized character buffer.
+     */
+    final static class Chars
+        extends java.io.Writer
+    {
+        private final static int Initial = 0x100;
+
+
+        private char[] buffer = new char[Initial];
+
+        private int count;
+
+        private PrintWriter printer;
+
+
+        Chars(){
+            super();
+        }
+
+
+        /**
+         * @return Writer into this buffer
+         */
+        PrintWriter printer(){
+            PrintWriter printer = this.printer;
+            if (null == printer){
+                printer = new PrintWriter(this);
+                this.printer = printer;
+            }
+            return printer;
+        }
+        void reset(){
+            this.count = 0;
+        }
+        int length(){
+            return this.count;
+        }
+        /**
+         * Ensure capacity for the argument length.
+         */
+        void reserve(int length){
+            if (length > this.buffer.length){
+                char[] copy = new char[length];
+                System.arraycopy(this.buffer,0,copy,0,this.count);
+                this.buffer = copy;
+            }
+        }
+        /**
+         * Empty the buffer, and drop storage exceeding the argument
+         * length.
+         */
+        void trim(int length){
+            this.count = 0;
+            if (length < this.buffer.length)
+                this.buffer = new char[Initial];
+        }
+        public void write(int ch){
+            int count = this.count;
+            if (count == this.buffer.length)
+                this.grow(count+1);
+            this.buffer[count] = (char)ch;
+            this.count = (count+1);
+        }
+        public void write(char[] cbuf, int off, int len){
+            int count = this.count;
+            int end = (count+len);
+            if (end > this.buffer.length)
+                this.grow(end);
+            System.arraycopy(cbuf,off,this.buffer,count,len);
+            this.count = end;
+        }
+        public void write(String str, int off, int len){
+            int count = this.count;
+            int end = (count+len);
+            if (end > this.buffer.length)
+                this.grow(end);
+            str.getChars(off,(off+len),this.buffer,count);
+            this.count = end;
+        }
+        public void flush(){
+        }
+        public void close(){
+        }
+        public String toString(){
+            return new String(this.buffer,0,this.count);
+        }
+        private void grow(int length){
+            char[] buffer = this.buffer;
+            int size = (buffer.length<<1);
+            if (size < length)
+                size = length;
+            char[] copy = new char[size];
+            System.arraycopy(buffer,0,copy,0,this.count);
+            this.buffer = copy;
+        }
+    }
+    /**
+     * Encoding writer into the buffers of a render output.
+     * Characters are staged into an array, and encoded from the array
+     * when it fills.
+     */
+    final static class Bytes
+        extends java.io.Writer
+    {
+        private final static int Staging = 0x400;
+
+
+        private final char[] staging = new char[Staging];
+
+        private final CharBuffer input = CharBuffer.wrap(this.staging);
+
+        private int count;
+
+        private CharsetEncoder encoder;
+
+        private RenderOutput output;
+
+        private ByteBuffer buffer;
+
+        private PrintWriter printer;
+
+
+        Bytes(){
+            super();
+        }
+
+
+        PrintWriter open(Charset charset, RenderOutput output){
+            CharsetEncoder encoder = this.encoder;
+            if (null == encoder || !encoder.charset().equals(charset)){
+                encoder = charset.newEncoder();
+                encoder.onMalformedInput(CodingErrorAction.REPLACE);
+                encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+                this.encoder = encoder;
+            }
+            else
+                encoder.reset();
+
+            this.count = 0;
+            this.output = output;
+            this.buffer = output.next();
+
+            PrintWriter printer = this.printer;
+            if (null == printer){
+                printer = new PrintWriter(this);
+                this.printer = printer;
+            }
+            return printer;
+        }
+        /**
+         * Encode the staged characters, and flush the encoder.
+         */
+        void complete(){
+            this.encode(true);
+            while (this.encoder.flush(this.buffer).isOverflow())
+                this.next();
+            this.output.complete();
+            this.clear();
+        }
+        /**
+         * Drop references to the output.
+         */
+        void clear(){
+            this.count = 0;
+            this.output = null;
+            this.buffer = null;
+        }
+        public void write(int ch){
+            if (Staging == this.count)
+                this.encode(false);
+            this.staging[this.count++] = (char)ch;
+        }
+        public void write(char[] cbuf, int off, int len){
+            while (0 < len){
+                if (Staging == this.count)
+                    this.encode(false);
+                int count = this.count;
+                int n = Math.min(len,(Staging-count));
+                System.arraycopy(cbuf,off,this.staging,count,n);
+                this.count = (count+n);
+                off += n;
+                len -= n;
+            }
+        }
+        public void write(String str, int off, int len){
+            while (0 < len){
+                if (Staging == this.count)
+                    this.encode(false);
+                int count = this.count;
+                int n = Math.min(len,(Staging-count));
+                str.getChars(off,(off+n),this.staging,count);
+                this.count = (count+n);
+                off += n;
+                len -= n;
+            }
+        }
+        public void flush(){
+        }
+        public void close(){
+        }
+        /**
+         * Continue into a new buffer
+         * @exception java.lang.IllegalArgumentException For a buffer
+         * too small for an encoded character
+         */
+        private void next(){
+            if (0 == this.buffer.position())
+                throw new IllegalArgumentException("Buffer size "+this.buffer.capacity()+" is too small for "+this.encoder.charset());
+            else
+                this.buffer = this.output.next();
+        }
+        /**
+         * Encode staged characters into the output, retaining an
+         * incomplete surrogate pair.
+         */
+        private void encode(boolean end){
+            CharBuffer input = this.input;
+            input.limit(this.count);
+            input.position(0);
+            while (this.encoder.encode(input,this.buffer,end).isOverflow())
+                this.next();
+
+            int remaining = input.remaining();
+            if (0 < remaining)
+                System.arraycopy(this.staging,input.position(),this.staging,0,remaining);
+            this.count = remaining;
+            input.clear();
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Iteration state of a section or include during rendering.
+ * 
+ * The renderer enters one frame for each section or include, and
+ * iterates it for each section data dictionary.  The {@link Iterator}
+ * sections <i>name</i><code>_it_First</code>, <code>_it_NotFirst</code>,
+ * <code>_it_Last</code>, <code>_it_NotLast</code> and
+ * <code>_it_Exclusive</code> are answered from the chain of frames
+ * when they are looked up, rather than defined into each section
+ * data dictionary.
+ * 
+ * Frames are reused.  A render holds one frame object per level of
+ * nesting for its duration, so that iterating a section allocates
+ * nothing for its iteration state.  A frame chain is confined to the
+ * thread performing the render.  The frame chain of a template render
+ * is held by the {@link RenderArena} of the thread, and reused by the
+ * thread's following renders.
+ * 
+ * @see Template#render(TemplateDataDictionary,java.io.PrintWriter)
+ * @author jdp
+ */
+public final class RenderFrame
+    extends Object
+{
+    /**
+     * A visible iteration marker is a section iterated once in the
+     * scope of the dictionary that looked it up.
+     */
+    private final static List<TemplateDataDictionary> Visible = Collections.emptyList();
+
+    private final static String Infix = "_it_";
+
+
+    private final RenderFrame outer;
+
+    private final RenderArena arena;
+
+    private final EscapeCache escapes;
+
+    private RenderFrame inner;
+
+    private String name;
+
+    private int index;
+
+    private boolean last;
+
+    private char[] digits;
+    /**
+     * Dictionary rendered in this frame, and the variable values
+     * resolved from it by interned name
+     */
+    private TemplateDataDictionary scope;
+
+    private String[] names;
+
+    private Object[] values;
+
+    private int count, replace;
+
+
+    /**
+     * Top frame of a render.
+     */
+    public RenderFrame(){
+        this((EscapeCache)null);
+    }
+    /**
+     * Top frame of a render.
+     * @param escapes Optional cache of modified values
+     */
+    public RenderFrame(EscapeCache escapes){
+        this(null,escapes);
+    }
+    /**
+     * Top frame of a render.
+     * @param arena Arena holding this frame, or null
+     * @param escapes Optional cache of modified values
+     */
+    RenderFrame(RenderArena arena, EscapeCache escapes){
+        super();
+        this.outer = null;
+        this.arena = arena;
+        this.escapes = escapes;
+        this.last = true;
+    }
+    private RenderFrame(RenderFrame outer){
+        super();
+        this.outer = outer;
+        this.arena = outer.arena;
+        this.escapes = outer.escapes;
+        this.last = true;
+    }
+
+
+    /**
+     * @return Cache of modified values for the render, or null.
+     */
+    public EscapeCache getEscapeCache(){
+        return this.escapes;
+    }
+    /**
+     * @return Render state of the thread, or null for a frame
+     * constructed by the application.
+     */
+    public RenderArena getArena(){
+        return this.arena;
+    }
+    /**
+     * @return Enclosing frame, or null for the top frame.
+     */
+    public RenderFrame getOuter(){
+        return this.outer;
+    }
+    /**
+     * @return Section or include name, or null for the top frame.
+     */
+    public String getName(){
+        return this.name;
+    }
+    /**
+     * @return Iteration index from zero
+     */
+    public int getIndex(){
+        return this.index;
+    }
+    public boolean isFirst(){
+        return (0 == this.index);
+    }
+    public boolean isLast(){
+        return this.last;
+    }
+    /**
+     * @param name Section or include name
+     * @return The frame of this frame's children, reinitialized for
+     * the argument name.
+     */
+    public RenderFrame enter(String name){
+        RenderFrame inner = this.inner;
+        if (null == inner){
+            inner = new RenderFrame(this);
+            this.inner = inner;
+        }
+        inner.name = name;
+        inner.index = 0;
+        inner.last = true;
+        return inner;
+    }
+    /**
+     * Define the current iteration of this frame.
+     */
+    public void iterate(int index, boolean last){
+        this.index = index;
+        this.last = last;
+        this.scope = null;
+        this.count = 0;
+    }
+    /**
+     * Drop references to the render from this frame and its inner
+     * frames, for the reuse of the frames by another render.
+     */
+    void clear(){
+        for (RenderFrame frame = this; null != frame; frame = frame.inner){
+            frame.name = null;
+            frame.index = 0;
+            frame.last = true;
+            frame.scope = null;
+            if (null != frame.names){
+                java.util.Arrays.fill(frame.names,null);
+                java.util.Arrays.fill(frame.values,null);
+            }
+            frame.count = 0;
+            frame.replace = 0;
+        }
+        if (null != this.escapes)
+            this.escapes.clear();
+    }
+    /**
+     * Define the dictionary rendered in this frame.
+     */
+    void scope(TemplateDataDictionary dict){
+        if (dict != this.scope){
+            this.scope = dict;
+            this.count = 0;
+        }
+    }
+    /**
+     * Variable lookup for the renderer.  A value is resolved once
+     * for each dictionary rendered in a frame.  A value inherited
+     * from the parent of the dictionary is resolved by the enclosing
+     * frame rendering the parent.  Another dictionary, as addressed
+     * by a path, is resolved without caching, and leaves the cache
+     * of the frame in place.
+     * 
+     * @param dict Current dictionary
+     * @param name Interned variable name
+     * @return String or Number, or null
+     */
+    public Object getVariableValue(TemplateDataDictionary dict, String name){
+        if (dict != this.scope){
+            for (RenderFrame frame = this.outer; null != frame; frame = frame.outer){
+                if (dict == frame.scope)
+                    return frame.getVariableValue(dict,name);
+            }
+            return this.resolve(dict,name);
+        }
+        else {
+            String[] names = this.names;
+            for (int cc = 0, count = this.count; cc < count; cc++){
+                if (name == names[cc]){
+                    Object value = this.values[cc];
+                    if (Missing == value)
+                        return null;
+                    else
+                        return value;
+                }
+            }
+            Object value = this.resolve(dict,name);
+            this.cache(name,value);
+            return value;
+        }
+    }
+    private Object resolve(TemplateDataDictionary dict, String name){
+        Object value;
+        if (dict instanceof TemplateDictionary)
+            value = ((TemplateDictionary)dict).lookupVariableValue(name);
+        else if (dict instanceof ReadOnlyDictionary)
+            value = ((ReadOnlyDictionary)dict).lookupVariableValue(name);
+        else
+            return TemplateDictionary.VariableValue(dict,name);
+
+        if (null != value)
+            return value;
+        else {
+            TemplateDataDictionary parent = dict.getParent();
+            if (null == parent)
+                return null;
+            else {
+                for (RenderFrame frame = this.outer; null != frame; frame = frame.outer){
+                    if (parent == frame.scope)
+                        return frame.getVariableValue(parent,name);
+                }
+                return TemplateDictionary.VariableValue(parent,name);
+            }
+        }
+    }
+    private void cache(String name, Object value){
+        if (null == value)
+            value = Missing;
+        String[] names = this.names;
+        if (null == names){
+            names = new String[Cache];
+            this.names = names;
+            this.values = new Object[Cache];
+        }
+        int index = this.count;
+        if (Cache == index){
+            index = this.replace;
+            this.replace = ((index+1) % Cache);
+        }
+        else
+            this.count = (index+1);
+        names[index] = name;
+        this.values[index] = value;
+    }
+    /**
+     * Write a variable value, formatting numbers into a buffer held
+     * by this frame.
+     * 
+     * @param value String or Number
+     */
+    public void print(java.io.PrintWriter out, Object value){
+        if (value instanceof String)
+            out.write((String)value);
+        else {
+            char[] digits = this.digits;
+            if (null == digits){
+                digits = new char[Digits.Length];
+                this.digits = digits;
+            }
+            Digits.Print(out,value,digits);
+        }
+    }
+    /**
+     * Write a variable value from a column section row, formatting
+     * numbers into the buffer held by this frame without boxing
+     * them.
+     * 
+     * @return False for a variable not defined by the row
+     */
+    public boolean print(java.io.PrintWriter out, ColumnSection.Row row, String name){
+        char[] digits = this.digits;
+        if (null == digits){
+            digits = new char[Digits.Length];
+            this.digits = digits;
+        }
+        return row.print(name,out,digits);
+    }
+    /**
+     * Write a modified variable value, via the escape cache when
+     * present.
+     */
+    public void print(java.io.PrintWriter out, Modifiers.Chain modifiers, String value){
+        EscapeCache escapes = this.escapes;
+        if (null != escapes)
+            escapes.write(modifiers,value,out);
+        else
+            modifiers.write(value,out);
+    }
+    /**
+     * Section lookup for the renderer.
+     * 
+     * @param dict Current dictionary
+     * @param sectionName Section or include name
+     * @return An iteration marker visible in this frame or its
+     * ancestors, otherwise the section from the dictionary.
+     */
+    public List<TemplateDataDictionary> getSection(TemplateDataDictionary dict, String sectionName){
+
+        if (-1 != sectionName.indexOf(Infix)){
+
+            for (RenderFrame frame = this; null != frame; frame = frame.outer){
+
+                switch (frame.marker(sectionName)){
+                case Marker:
+                    return Visible;
+                case Hidden:
+                    return dict.getSection(sectionName);
+                default:
+                    break;
+                }
+            }
+        }
+        return dict.getSection(sectionName);
+    }
+    /**
+     * @return Whether the argument names an iteration marker of this
+     * frame, and its visibility.
+     */
+    private int marker(String sectionName){
+        String name = this.name;
+        if (null != name){
+            int nlen = name.length();
+            if (sectionName.length() > nlen && sectionName.startsWith(name)){
+                int index = this.index;
+                boolean last = this.last;
+
+                if (IsSuffix(sectionName,nlen,Iterator.Suffix.First))
+                    return Visibility(0 == index);
+                else if (IsSuffix(sectionName,nlen,Iterator.Suffix.NotFirst))
+                    return Visibility(0 != index);
+                else if (IsSuffix(sectionName,nlen,Iterator.Suffix.Last))
+                    return Visibility(last);
+                else if (IsSuffix(sectionName,nlen,Iterator.Suffix.NotLast))
+                    return Visibility(!last);
+                else if (IsSuffix(sectionName,nlen,Iterator.Suffix.Exclusive))
+                    return Visibility(0 != index && !last);
+            }
+        }
+        return None;
+    }
+
+    private final static boolean IsSuffix(String sectionName, int ofs, String suffix){
+        int len = suffix.length();
+        return (len == (sectionName.length()-ofs) && sectionName.regionMatches(ofs,suffix,0,len));
+    }
+    private final static int Visibility(boolean visible){
+        if (visible)
+            return Marker;
+        else
+            return Hidden;
+    }
+
+    private final static int Cache = 16;
+
+    private final static Object Missing = new Object();
+
+    private final static int None = 0;
+    private final static int Marker = 1;
+    private final static int Hidden = 2;
+}
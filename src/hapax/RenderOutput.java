@@ -0,0 +1,150 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Encoded output of {@link Template#renderToBuffers
+ * Template.renderToBuffers} in a sequence of direct buffers from a
+ * {@link BufferPool}.  The buffers are ready for reading, as by a
+ * gathering write to a channel.
+ * 
+ * The buffers are returned to their pool by {@link #release()},
+ * after which they must not be used.  An output is confined to one
+ * thread at a time.
+ * 
+ * @author jdp
+ */
+public final class RenderOutput
+    extends Object
+{
+    private final BufferPool pool;
+
+    private ByteBuffer[] buffers = new ByteBuffer[4];
+
+    private int count;
+    /**
+     * Index of the first buffer with remaining content
+     */
+    private int first;
+
+    private long length;
+
+
+    RenderOutput(BufferPool pool){
+        super();
+        this.pool = pool;
+    }
+
+
+    /**
+     * @return Encoded length in bytes
+     */
+    public long getLength(){
+        return this.length;
+    }
+    /**
+     * @return Buffers with content remaining to be written
+     */
+    public ByteBuffer[] getBuffers(){
+        int count = (this.count - this.first);
+        ByteBuffer[] list = new ByteBuffer[count];
+        System.arraycopy(this.buffers,this.first,list,0,count);
+        return list;
+    }
+    public boolean hasRemaining(){
+        this.skip();
+        return (this.first < this.count);
+    }
+    /**
+     * Gathering write of the remaining content.  A channel in
+     * non-blocking mode may write less than all of the remaining
+     * content.
+     * 
+     * @return Number of bytes written
+     */
+    public long write(GatheringByteChannel channel)
+        throws IOException
+    {
+        long total = 0L;
+        while (this.hasRemaining()){
+            long wrote = channel.write(this.buffers,this.first,(this.count - this.first));
+            if (0L < wrote)
+                total += wrote;
+            else
+                break;
+        }
+        return total;
+    }
+    /**
+     * Return the buffers to the pool.
+     */
+    public void release(){
+        ByteBuffer[] buffers = this.buffers;
+        for (int cc = 0, count = this.count; cc < count; cc++){
+            this.pool.release(buffers[cc]);
+            buffers[cc] = null;
+        }
+        this.count = 0;
+        this.first = 0;
+        this.length = 0L;
+    }
+
+    /**
+     * @return Empty buffer appended to the output
+     */
+    ByteBuffer next(){
+        ByteBuffer buffer = this.pool.acquire();
+        int count = this.count;
+        if (count == this.buffers.length){
+            ByteBuffer[] copy = new ByteBuffer[count<<1];
+            System.arraycopy(this.buffers,0,copy,0,count);
+            this.buffers = copy;
+        }
+        this.buffers[count] = buffer;
+        this.count = (count+1);
+        return buffer;
+    }
+    /**
+     * Prepare the buffers for reading.
+     */
+    void complete(){
+        long length = 0L;
+        for (int cc = 0, count = this.count; cc < count; cc++){
+            ByteBuffer buffer = this.buffers[cc];
+            buffer.flip();
+            length += buffer.remaining();
+        }
+        this.length = length;
+    }
+    private void skip(){
+        while (this.first < this.count && !this.buffers[this.first].hasRemaining())
+            this.first += 1;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.util.List;
+
+/**
+ * Section data that is not held in memory as a list of dictionaries,
+ * for example a {@link SectionStream}.  The section data dictionaries
+ * of a section list are produced in the scope of a parent
+ * dictionary.
+ * 
+ * @see TemplateDictionary#setSection
+ * @author jdp
+ */
+public interface SectionList
+    extends List<TemplateDataDictionary>
+{
+    /**
+     * @return This section data in the scope of the argument parent,
+     * sharing its content.
+     */
+    public SectionList scope(TemplateDataDictionary parent);
+    /**
+     * Called by {@link TemplateDataDictionary#renderComplete()} in
+     * place of completing each section data dictionary.
+     */
+    public void renderComplete();
+
+}
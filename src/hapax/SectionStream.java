@@ -0,0 +1,208 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.util.AbstractList;
+import java.util.NoSuchElementException;
+
+/**
+ * Section data read once, one section data dictionary at a time,
+ * from an iterator.
+ * 
+ * The renderer consumes a section stream in order, and determines
+ * the {@link Iterator} last iteration by looking one row ahead.  Each
+ * section data dictionary is completed as soon as it has been
+ * rendered and is not retained, so that the memory used to render
+ * the section is independent of its length.  An empty stream is not
+ * rendered.
+ * 
+ * A section stream can only be iterated once.  Its size and indexed
+ * rows are available, as a list, by reading the remainder of the
+ * stream into memory on the first call to {@link #size()} or {@link
+ * #get(int)}.  Rows that have already been iterated are not included.
+ * The renderer only iterates a stream.
+ * 
+ * A frozen dictionary copies the rows of a stream when it's frozen,
+ * as a stream can't be shared.
+ * 
+ * @author jdp
+ */
+public final class SectionStream
+    extends AbstractList<TemplateDataDictionary>
+    implements SectionList
+{
+    /**
+     * Shared by scopes
+     */
+    private final static class Source
+        extends Object
+    {
+        private java.util.Iterator<? extends TemplateDataDictionary> rows;
+        /**
+         * Remainder of the stream, once read for list access
+         */
+        private java.util.ArrayList<TemplateDataDictionary> list;
+
+        Source(java.util.Iterator<? extends TemplateDataDictionary> rows){
+            super();
+            if (null != rows)
+                this.rows = rows;
+            else
+                throw new IllegalArgumentException();
+        }
+
+        boolean hasNext(){
+            java.util.Iterator<? extends TemplateDataDictionary> rows = this.rows;
+            if (null != rows){
+                if (rows.hasNext())
+                    return true;
+                else
+                    this.rows = null;
+            }
+            return false;
+        }
+        TemplateDataDictionary next(){
+            if (this.hasNext())
+                return this.rows.next();
+            else
+                throw new NoSuchElementException();
+        }
+        void close(){
+            this.rows = null;
+            this.list = null;
+        }
+        /**
+         * @return Remainder of the stream
+         */
+        java.util.List<TemplateDataDictionary> list(){
+            java.util.ArrayList<TemplateDataDictionary> list = this.list;
+            if (null == list){
+                list = new java.util.ArrayList<TemplateDataDictionary>();
+                while (this.hasNext())
+                    list.add(this.rows.next());
+                this.list = list;
+            }
+            return list;
+        }
+        boolean isList(){
+            return (null != this.list);
+        }
+    }
+    /**
+     * Section data dictionaries in the scope of the stream parent.
+     */
+    private final class Rows
+        extends Object
+        implements java.util.Iterator<TemplateDataDictionary>
+    {
+        Rows(){
+            super();
+        }
+
+        public boolean hasNext(){
+            return SectionStream.this.source.hasNext();
+        }
+        public TemplateDataDictionary next(){
+            TemplateDataDictionary row = SectionStream.this.source.next();
+            TemplateDataDictionary parent = SectionStream.this.parent;
+            if (null != parent)
+                return TemplateDictionary.Adopt(parent,row);
+            else
+                return row;
+        }
+        public void remove(){
+            throw new UnsupportedOperationException();
+        }
+    }
+
+
+    private final Source source;
+
+    private final TemplateDataDictionary parent;
+
+
+    public SectionStream(java.util.Iterator<? extends TemplateDataDictionary> rows){
+        this(new Source(rows),null);
+    }
+    public SectionStream(Iterable<? extends TemplateDataDictionary> rows){
+        this(new Source(rows.iterator()),null);
+    }
+    private SectionStream(Source source, TemplateDataDictionary parent){
+        super();
+        this.source = source;
+        this.parent = parent;
+    }
+
+
+    public TemplateDataDictionary getParent(){
+        return this.parent;
+    }
+    public SectionList scope(TemplateDataDictionary parent){
+        return new SectionStream(this.source,parent);
+    }
+    /**
+     * Release the remainder of the stream.
+     */
+    public void renderComplete(){
+        this.source.close();
+    }
+    /**
+     * @return Remaining section data, once, or the section data read
+     * for list access.
+     */
+    public java.util.Iterator<TemplateDataDictionary> iterator(){
+        if (this.source.isList())
+            return super.iterator();
+        else
+            return new Rows();
+    }
+    public boolean isEmpty(){
+        if (this.source.isList())
+            return this.source.list().isEmpty();
+        else
+            return (!this.source.hasNext());
+    }
+    /**
+     * Reads the remainder of the stream on the first call.
+     */
+    public TemplateDataDictionary get(int index){
+        TemplateDataDictionary row = this.source.list().get(index);
+        TemplateDataDictionary parent = this.parent;
+        if (null != parent)
+            return TemplateDictionary.Adopt(parent,row);
+        else
+            return row;
+    }
+    /**
+     * Reads the remainder of the stream on the first call.
+     */
+    public int size(){
+        return this.source.list().size();
+    }
+    public String toString(){
+        return "[stream]";
+    }
+}
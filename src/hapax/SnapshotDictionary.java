@@ -0,0 +1,440 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only dictionary over a binary snapshot of a {@link
+ * TemplateDictionary}, in memory or mapped from a file.
+ * 
+ * A snapshot holds the variables and sections of a dictionary and
+ * its section data, and the ancestors of the dictionary.  Each
+ * dictionary is a record of fixed width entries referring to a table
+ * of strings, so that a snapshot is used without decoding: a name is
+ * found by comparing characters in the snapshot, and a value is
+ * decoded when it's referenced.  Any number of threads and processes
+ * may share a snapshot.
+ * 
+ * <h3>Format</h3>
+ * 
+ * Big endian integers, offsets from the start of the snapshot.
+ * 
+ * <pre>
+ * snapshot   := magic version root
+ * dictionary := flags parent nvariables nsections
+ *               (hash name type value){nvariables}
+ *               (hash name section){nsections}
+ * section    := count dictionary-offset{count}
+ * string     := length utf16-char{length}
+ * datum      := long
+ * </pre>
+ * 
+ * A variable value is a string, or a datum of type long or double.
+ * The parent offset of a section data dictionary is zero, as its
+ * parent is the enclosing dictionary.
+ * 
+ * @author jdp
+ */
+public final class SnapshotDictionary
+    extends ReadOnlyDictionary
+{
+    public final static int Magic = 0x48505853;
+    public final static int Version = 1;
+
+    private final static int TypeString = 0;
+    private final static int TypeLong = 1;
+    private final static int TypeDouble = 2;
+
+    private final static int FlagAnnotations = 1;
+
+    private final static int Header = 12;
+    private final static int Record = 16;
+    private final static int Variable = 16;
+    private final static int Section = 12;
+
+
+    /**
+     * Write the snapshot of a dictionary to a file.
+     */
+    public final static void Write(TemplateDictionary dict, File file)
+        throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            Write(dict,out);
+        }
+        finally {
+            out.close();
+        }
+    }
+    /**
+     * Write the snapshot of a dictionary.
+     * 
+     * @exception java.lang.IllegalArgumentException For section data
+     * that is not a {@link TemplateDictionary}.
+     */
+    public final static void Write(TemplateDictionary dict, OutputStream out)
+        throws IOException
+    {
+        Writer writer = new Writer();
+        writer.root(dict);
+        writer.writeTo(out);
+    }
+    /**
+     * Map a snapshot file into memory.
+     */
+    public final static SnapshotDictionary Map(File file)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return new SnapshotDictionary(channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size()));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Snapshot encoder.
+     */
+    private final static class Writer
+        extends Object
+    {
+        private byte[] buffer = new byte[0x400];
+
+        private int length;
+
+        private final HashMap<String,Integer> strings = new HashMap<String,Integer>();
+
+
+        Writer(){
+            super();
+            this.putInt(Magic);
+            this.putInt(Version);
+            this.putInt(0);
+        }
+
+
+        void root(TemplateDictionary dict){
+            int parent = 0;
+            TemplateDataDictionary ancestor = dict.getParent();
+            if (null != ancestor){
+                if (ancestor instanceof TemplateDictionary)
+                    this.root((TemplateDictionary)ancestor);
+                else
+                    throw new IllegalArgumentException(ancestor.getClass().getName());
+                parent = this.getInt(8);
+            }
+            this.setInt(8,this.dictionary(dict,parent));
+        }
+        void writeTo(OutputStream out)
+            throws IOException
+        {
+            out.write(this.buffer,0,this.length);
+        }
+        /**
+         * @return Record offset
+         */
+        private int dictionary(TemplateDictionary dict, int parent){
+            dict.resolveDeferred();
+
+            CompactMap<Object> variables = dict.getVariableTable();
+            int count = (null != variables)?(variables.size()):(0);
+            String[] variableKeys = new String[count];
+            int[] variableNames = new int[count];
+            int[] variableTypes = new int[count];
+            int[] variableValues = new int[count];
+            int nvariables = 0;
+            for (int index = 0; index < count; index++){
+                Object value = variables.valueAt(index);
+                if (null == value)
+                    /*
+                     * Set to null, or deferred to null: absent
+                     */
+                    continue;
+                int cc = nvariables++;
+                variableKeys[cc] = variables.keyAt(index);
+                variableNames[cc] = this.string(variableKeys[cc]);
+                if (value instanceof Integer || value instanceof Long){
+                    variableTypes[cc] = TypeLong;
+                    variableValues[cc] = this.datum(((Number)value).longValue());
+                }
+                else if (value instanceof Double){
+                    variableTypes[cc] = TypeDouble;
+                    variableValues[cc] = this.datum(Double.doubleToRawLongBits(((Double)value).doubleValue()));
+                }
+                else {
+                    variableTypes[cc] = TypeString;
+                    variableValues[cc] = this.string(value.toString());
+                }
+            }
+            CompactMap<List<TemplateDataDictionary>> sections = dict.getSectionTable();
+            int nsections = (null != sections)?(sections.size()):(0);
+            int[] sectionNames = new int[nsections];
+            int[] sectionValues = new int[nsections];
+            for (int cc = 0; cc < nsections; cc++){
+                sectionNames[cc] = this.string(sections.keyAt(cc));
+                sectionValues[cc] = this.section(sections.valueAt(cc));
+            }
+
+            int record = this.length;
+            this.putInt(dict.debugAnnotationsEnabled()?(FlagAnnotations):(0));
+            this.putInt(parent);
+            this.putInt(nvariables);
+            this.putInt(nsections);
+            for (int cc = 0; cc < nvariables; cc++){
+                this.putInt(variableKeys[cc].hashCode());
+                this.putInt(variableNames[cc]);
+                this.putInt(variableTypes[cc]);
+                this.putInt(variableValues[cc]);
+            }
+            for (int cc = 0; cc < nsections; cc++){
+                this.putInt(sections.keyAt(cc).hashCode());
+                this.putInt(sectionNames[cc]);
+                this.putInt(sectionValues[cc]);
+            }
+            return record;
+        }
+        private int section(List<TemplateDataDictionary> section){
+            int count = section.size();
+            int[] rows = new int[count];
+            for (int cc = 0; cc < count; cc++){
+                TemplateDataDictionary row = section.get(cc);
+                if (row instanceof TemplateDictionary)
+                    rows[cc] = this.dictionary((TemplateDictionary)row,0);
+                else
+                    throw new IllegalArgumentException(row.getClass().getName());
+            }
+            int record = this.length;
+            this.putInt(count);
+            for (int cc = 0; cc < count; cc++){
+                this.putInt(rows[cc]);
+            }
+            return record;
+        }
+        private int string(String string){
+            Integer offset = this.strings.get(string);
+            if (null != offset)
+                return offset.intValue();
+            else {
+                int record = this.length;
+                int count = string.length();
+                this.putInt(count);
+                this.ensure(count<<1);
+                byte[] buffer = this.buffer;
+                int ofs = this.length;
+                for (int cc = 0; cc < count; cc++){
+                    char ch = string.charAt(cc);
+                    buffer[ofs++] = (byte)(ch>>>8);
+                    buffer[ofs++] = (byte)ch;
+                }
+                this.length = ofs;
+                this.strings.put(string,record);
+                return record;
+            }
+        }
+        private int datum(long value){
+            int record = this.length;
+            this.putInt((int)(value>>>32));
+            this.putInt((int)value);
+            return record;
+        }
+        private void putInt(int value){
+            this.ensure(4);
+            this.setInt(this.length,value);
+            this.length += 4;
+        }
+        private void setInt(int ofs, int value){
+            byte[] buffer = this.buffer;
+            buffer[ofs] = (byte)(value>>>24);
+            buffer[ofs+1] = (byte)(value>>>16);
+            buffer[ofs+2] = (byte)(value>>>8);
+            buffer[ofs+3] = (byte)value;
+        }
+        private int getInt(int ofs){
+            byte[] buffer = this.buffer;
+            return (((buffer[ofs] & 0xFF)<<24)|((buffer[ofs+1] & 0xFF)<<16)
+                    |((buffer[ofs+2] & 0xFF)<<8)|(buffer[ofs+3] & 0xFF));
+        }
+        private void ensure(int count){
+            int length = (this.length+count);
+            if (length > this.buffer.length){
+                byte[] copier = new byte[Math.max(length,(this.buffer.length<<1))];
+                System.arraycopy(this.buffer,0,copier,0,this.length);
+                this.buffer = copier;
+            }
+        }
+    }
+    /**
+     * Section data over a section record.
+     */
+    private final static class Rows
+        extends AbstractList<TemplateDataDictionary>
+        implements RandomAccess
+    {
+        private final ByteBuffer buffer;
+
+        private final int record;
+
+        private final TemplateDataDictionary parent;
+
+
+        Rows(ByteBuffer buffer, int record, TemplateDataDictionary parent){
+            super();
+            this.buffer = buffer;
+            this.record = record;
+            this.parent = parent;
+        }
+
+
+        public TemplateDataDictionary get(int index){
+            if (-1 < index && index < this.size())
+                return new SnapshotDictionary(this.buffer,this.buffer.getInt(this.record+4+(index<<2)),this.parent);
+            else
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        public int size(){
+            return this.buffer.getInt(this.record);
+        }
+    }
+
+
+    private final ByteBuffer buffer;
+
+    private final int record;
+
+
+    /**
+     * @param snapshot Snapshot from position zero, not modified while
+     * in use
+     */
+    public SnapshotDictionary(ByteBuffer snapshot){
+        this(snapshot.duplicate(),Root(snapshot));
+    }
+    private SnapshotDictionary(ByteBuffer buffer, int record){
+        this(buffer,record,Parent(buffer,record));
+    }
+    private SnapshotDictionary(ByteBuffer buffer, int record, TemplateDataDictionary parent){
+        super(parent,(0 != (buffer.getInt(record) & FlagAnnotations)));
+        this.buffer = buffer;
+        this.record = record;
+    }
+
+
+    protected String lookupVariable(String name){
+        Object value = this.lookupVariableValue(name);
+        if (null != value)
+            return value.toString();
+        else
+            return null;
+    }
+    protected Object lookupVariableValue(String name){
+        ByteBuffer buffer = this.buffer;
+        int record = this.record;
+        int count = buffer.getInt(record+8);
+        int hash = name.hashCode();
+        for (int cc = 0, entry = (record+Record); cc < count; cc++, entry += Variable){
+            if (hash == buffer.getInt(entry) && this.equals(buffer.getInt(entry+4),name)){
+                int value = buffer.getInt(entry+12);
+                switch (buffer.getInt(entry+8)){
+                case TypeLong:
+                    return Long.valueOf(buffer.getLong(value));
+                case TypeDouble:
+                    return Double.valueOf(Double.longBitsToDouble(buffer.getLong(value)));
+                default:
+                    return this.string(value);
+                }
+            }
+        }
+        return null;
+    }
+    protected List<TemplateDataDictionary> lookupSection(String sectionName){
+        ByteBuffer buffer = this.buffer;
+        int record = this.record;
+        int count = buffer.getInt(record+12);
+        int hash = sectionName.hashCode();
+        int entry = (record+Record+(buffer.getInt(record+8)*Variable));
+        for (int cc = 0; cc < count; cc++, entry += Section){
+            if (hash == buffer.getInt(entry) && this.equals(buffer.getInt(entry+4),sectionName))
+                return new Rows(buffer,buffer.getInt(entry+8),this);
+        }
+        return null;
+    }
+    public TemplateDataDictionary clone(TemplateDataDictionary parent){
+        return new SnapshotDictionary(this.buffer,this.record,parent);
+    }
+
+    private boolean equals(int string, String name){
+        ByteBuffer buffer = this.buffer;
+        int count = name.length();
+        if (count == buffer.getInt(string)){
+            for (int cc = 0, ofs = (string+4); cc < count; cc++, ofs += 2){
+                if (name.charAt(cc) != buffer.getChar(ofs))
+                    return false;
+            }
+            return true;
+        }
+        else
+            return false;
+    }
+    private String string(int string){
+        ByteBuffer buffer = this.buffer;
+        int count = buffer.getInt(string);
+        char[] chars = new char[count];
+        for (int cc = 0, ofs = (string+4); cc < count; cc++, ofs += 2)
+            chars[cc] = buffer.getChar(ofs);
+        return new String(chars);
+    }
+
+    private final static int Root(ByteBuffer snapshot){
+        if (Header > snapshot.limit() || Magic != snapshot.getInt(0))
+            throw new IllegalArgumentException("Not a snapshot");
+        else if (Version != snapshot.getInt(4))
+            throw new IllegalArgumentException("Unsupported snapshot version "+snapshot.getInt(4));
+        else
+            return snapshot.getInt(8);
+    }
+    private final static SnapshotDictionary Parent(ByteBuffer buffer, int record){
+        int parent = buffer.getInt(record+4);
+        if (0 != parent)
+            return new SnapshotDictionary(buffer,parent);
+        else
+            return null;
+    }
+}
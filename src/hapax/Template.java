@@ -26,15 +26,18 @@
 package hapax;
 
 import hapax.parser.CTemplateParser;
+import hapax.parser.IncludeNode;
 import hapax.parser.SectionNode;
 import hapax.parser.TemplateNode;
 import static hapax.parser.TemplateNode.TemplateType.*;
 import hapax.parser.TemplateParser;
+import hapax.parser.VariableNode;
 
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Template executes the program defined by the tmpl_ list.  The list itself is
@@ -64,6 +67,14 @@ public final class Template
     private final List<TemplateNode> template;
     private final TemplateLoader context;
     private final String resource;
+    private volatile TemplateManifest manifest;
+    private volatile boolean escapeCaching;
+    /**
+     * Decaying estimate of the output length of renderToString
+     */
+    private volatile int outputEstimate;
+    private final java.util.concurrent.atomic.AtomicLong escapeHits = new java.util.concurrent.atomic.AtomicLong();
+    private final java.util.concurrent.atomic.AtomicLong escapeMisses = new java.util.concurrent.atomic.AtomicLong();
 
 
     public Template(String template, TemplateLoader context, String resource)
@@ -102,34 +113,155 @@ public final class Template
         return this.lastModified;
     }
 
+    /**
+     * @return Names referenced by this template and the templates it
+     * includes, determined on the first call, and again after an
+     * included template is reloaded or has failed to load
+     */
+    public TemplateManifest getManifest(){
+        TemplateManifest manifest = this.manifest;
+        if (null == manifest || !manifest.isCurrent()){
+            manifest = new TemplateManifest(this);
+            this.manifest = manifest;
+        }
+        return manifest;
+    }
+    /**
+     * Modified variable values are cached for the duration of each
+     * render when enabled, for templates that repeat values.  The
+     * cache includes the templates included by this template.
+     */
+    public void setEscapeCaching(boolean enabled){
+        this.escapeCaching = enabled;
+    }
+    public boolean isEscapeCaching(){
+        return this.escapeCaching;
+    }
+    /**
+     * @return Escape cache hits in renders of this template
+     */
+    public long getEscapeCacheHits(){
+        return this.escapeHits.get();
+    }
+    /**
+     * @return Escape cache misses in renders of this template
+     */
+    public long getEscapeCacheMisses(){
+        return this.escapeMisses.get();
+    }
+    /**
+     * @return Estimate of the output length of this template, toward
+     * the high end of recent renders to string
+     */
+    public int getOutputEstimate(){
+        return this.outputEstimate;
+    }
     public void render(TemplateDataDictionary dict, PrintWriter writer)
         throws TemplateException
     {
+        RenderArena arena = RenderArena.Acquire();
+        RenderFrame frame = arena.frame(this.escapeCaching);
         try {
-            this.render(Top, this.template, dict, writer);
+            this.render(Top, this.template, dict, writer, frame);
         }
         finally {
             dict.renderComplete();
+            this.account(frame);
+            arena.release();
         }
     }
+    /**
+     * Render within the iteration of an including template.  The
+     * dictionary is completed by the outermost render, so that the
+     * section data of an include is not completed (or recycled)
+     * while it's still referenced by its parent.
+     * 
+     * @param frame Include iteration frame
+     */
+    public void render(TemplateDataDictionary dict, PrintWriter writer, RenderFrame frame)
+        throws TemplateException
+    {
+        this.render(Top, this.template, dict, writer, frame);
+    }
     public String renderToString(TemplateDataDictionary dict)
         throws TemplateException
     {
+        RenderArena arena = RenderArena.Acquire();
+        RenderFrame frame = arena.frame(this.escapeCaching);
         try {
-            StringWriter buffer = new StringWriter();
+            int estimate = this.outputEstimate;
 
-            this.render(Top, this.template, dict, (new PrintWriter(buffer)));
+            this.render(Top, this.template, dict, arena.writer(estimate + (estimate>>3)), frame);
 
-            return buffer.toString();
+            this.estimate(arena.length());
+
+            return arena.output();
         }
         finally {
             dict.renderComplete();
+            this.account(frame);
+            arena.release();
         }
     }
+    /**
+     * Render and encode into direct buffers from the pool, without
+     * an intermediate string.  The caller writes the output, for
+     * example to a gathering channel, and then releases it to the
+     * pool.
+     * 
+     * @return Output ready for reading
+     */
+    public RenderOutput renderToBuffers(TemplateDataDictionary dict, BufferPool pool, Charset charset)
+        throws TemplateException
+    {
+        RenderArena arena = RenderArena.Acquire();
+        RenderFrame frame = arena.frame(this.escapeCaching);
+        RenderOutput output = new RenderOutput(pool);
+        boolean complete = false;
+        try {
+            this.render(Top, this.template, dict, arena.writer(charset,output), frame);
 
-    private void render(int offset, List<TemplateNode> template, TemplateDataDictionary dict, PrintWriter writer)
+            arena.encoded();
+
+            complete = true;
+
+            return output;
+        }
+        finally {
+            dict.renderComplete();
+            this.account(frame);
+            arena.release();
+            if (!complete)
+                output.release();
+        }
+    }
+    /**
+     * Rises quickly to a longer output, and decays slowly from
+     * shorter ones, so that render buffers are sized for the larger
+     * outputs of the template.
+     */
+    private void estimate(int length){
+        int estimate = this.outputEstimate;
+        if (length > estimate)
+            estimate += ((length - estimate + 1) >> 1);
+        else
+            estimate -= ((estimate - length) >> 4);
+        this.outputEstimate = estimate;
+    }
+    private void account(RenderFrame frame){
+        EscapeCache escapes = frame.getEscapeCache();
+        if (null != escapes){
+            this.escapeHits.addAndGet(escapes.getHits());
+            this.escapeMisses.addAndGet(escapes.getMisses());
+        }
+    }
+
+    private void render(int offset, List<TemplateNode> template, TemplateDataDictionary dict, PrintWriter writer,
+                        RenderFrame frame)
         throws TemplateException
     {
+        frame.scope(dict);
+
         if (Top == offset && template == this.template && dict.debugAnnotationsEnabled()) {
             writer.write("{{#FILE=");
             writer.write(resource);
@@ -143,11 +275,11 @@ public final class Template
 
             case TemplateTypeSection:
 
-                position = this.renderSectionNode(offset, template, dict, position, ((SectionNode)node), writer);
+                position = this.renderSectionNode(offset, template, dict, position, ((SectionNode)node), writer, frame);
                 break;
 
             default:
-                node.evaluate(dict, this.context, writer);
+                node.evaluate(dict, this.context, writer, frame);
                 break;
             }
         }
@@ -156,7 +288,7 @@ public final class Template
         }
     }
     private int renderSectionNode(int offset, List<TemplateNode> template, TemplateDataDictionary dict, int open,
-                                  SectionNode section, PrintWriter writer)
+                                  SectionNode section, PrintWriter writer, RenderFrame frame)
         throws TemplateException
     {
         int next = (open + 1);
@@ -166,13 +298,73 @@ public final class Template
 
             String sectionName = section.getSectionName();
 
-            List<TemplateDataDictionary> data = dict.getSection(sectionName);
+            TemplateDataDictionary scope = dict;
+
+            /*
+             * Repeat rows from first, for length or all when negative
+             */
+            int first = 0, length = -1;
+
+            Name path = section.getPath();
+
+            List<TemplateDataDictionary> data = frame.getSection(dict,sectionName);
+
+            if (null == data && null != path){
+                /*
+                 * Not a literal key: section of the dictionary
+                 * addressed by the path, or one of its rows by index
+                 */
+                Name.Component leaf = path.getLast();
+                scope = path.getScope(dict);
+                data = (null != scope)?(frame.getSection(scope,leaf.component)):(null);
+                if (null != data && null != leaf.term && !(data instanceof SectionStream)){
+                    if (leaf.index < data.size()){
+                        first = leaf.index;
+                        length = 1;
+                    }
+                    else
+                        data = null;
+                }
+            }
 
             if (null != data){
 
-                if (data.size() == 0) {
+                List<TemplateNode> body = template.subList(next, close);
+
+                RenderFrame iteration = frame.enter(sectionName);
 
-                    Iterator.Define(dict,sectionName,0,1);
+                if (data instanceof SectionStream) {
+                    /*
+                     * Stream, with one section data dictionary
+                     * lookahead for the last iteration
+                     */
+                    java.util.Iterator<TemplateDataDictionary> rows = data.iterator();
+
+                    TemplateDataDictionary child = (rows.hasNext())?(rows.next()):(null);
+
+                    for (int cc = 0; null != child; cc++){
+
+                        TemplateDataDictionary following = (rows.hasNext())?(rows.next()):(null);
+
+                        if (dict.debugAnnotationsEnabled()) {
+                            writer.write("{{#SEC=");
+                            writer.write(sectionName);
+                            writer.write("}}");
+                        }
+                        iteration.iterate(cc,(null == following));
+
+                        this.render(next, body, child, writer, iteration);
+                        if (dict.debugAnnotationsEnabled()) {
+                            writer.write("{{/SEC}}");
+                        }
+                        child.renderComplete();
+
+                        child = following;
+                    }
+                }
+                else if (data.size() == 0 && !(data instanceof SectionList)) {
+
+                    iteration.iterate(0,true);
                     /*
                      * Once
                      */
@@ -181,7 +373,7 @@ public final class Template
                         writer.write(sectionName);
                         writer.write("}}");
                     }
-                    this.render(next, template.subList(next, close), dict, writer);
+                    this.render(next, body, scope, writer, iteration);
                     if (dict.debugAnnotationsEnabled()) {
                         writer.write("{{/SEC}}");
                     }
@@ -190,18 +382,26 @@ public final class Template
                     /*
                      * Repeat
                      */
-                    for (int cc = 0, count = data.size(); cc < count; cc++){
+                    ColumnSection columns = (data instanceof ColumnSection)?((ColumnSection)data):(null);
+                    TemplateDataDictionary child = null;
+
+                    int count = (0 > length)?(data.size()):(length);
+
+                    for (int cc = 0, term = (count-1); cc < count; cc++){
 
                         if (dict.debugAnnotationsEnabled()) {
                             writer.write("{{#SEC=");
                             writer.write(sectionName);
                             writer.write("}}");
                         }
-                        TemplateDataDictionary child = data.get(cc);
+                        if (null != columns)
+                            child = columns.cursor(first+cc,child);
+                        else
+                            child = data.get(first+cc);
 
-                        Iterator.Define(child,sectionName,cc,count);
+                        iteration.iterate(cc,(cc == term));
 
-                        this.render(next, template.subList(next, close), child, writer);
+                        this.render(next, body, child, writer, iteration);
                         if (dict.debugAnnotationsEnabled()) {
                             writer.write("{{/SEC}}");
                         }
@@ -218,5 +418,67 @@ public final class Template
             throw new TemplateException("Missing close tag for section '" + section.getSectionName()+"' at line "+section.lineNumber+".");
     }
 
+    /**
+     * Collect names for the manifest.
+     */
+    void manifest(Set<String> variables, Set<String> sections, Set<String> templates,
+                  List<TemplateManifest.Include> includes, Set<Template> visited)
+    {
+        if (visited.add(this)){
+            for (TemplateNode node : this.template){
+
+                if (node instanceof VariableNode){
+                    VariableNode variable = (VariableNode)node;
+                    Name path = variable.getPath();
+                    if (null == path)
+                        variables.add(variable.getVariableName());
+                    else {
+                        for (int cc = 0, term = (path.size()-1); cc < term; cc++)
+                            sections.add(path.get(cc).component);
+                        variables.add(path.getLast().component);
+                    }
+                }
+                else if (node instanceof SectionNode){
+                    SectionNode section = (SectionNode)node;
+                    if (section.isOpenSectionTag()){
+                        Name path = section.getPath();
+                        if (null == path){
+                            String name = section.getSectionName();
+                            if (!Iterator.IsMarker(name))
+                                sections.add(name);
+                        }
+                        else {
+                            for (Name.Component component : path)
+                                sections.add(component.component);
+                        }
+                    }
+                }
+                else if (node instanceof IncludeNode){
+                    IncludeNode include = (IncludeNode)node;
+                    sections.add(include.getSectionName());
+                    if (include.isRedirect())
+                        variables.add(include.getSectionName());
+
+                    String name = include.getTemplateName();
+                    if (null != this.context){
+                        Template template;
+                        try {
+                            template = this.context.getTemplate(name);
+                            includes.add(new TemplateManifest.Include(this.context,name,template,null));
+                        }
+                        catch (TemplateException exc){
+                            includes.add(new TemplateManifest.Include(this.context,name,null,exc));
+                            template = null;
+                        }
+                        if (null != template){
+                            templates.add(name);
+                            template.manifest(variables,sections,templates,includes,visited);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     private final static int Top = 0;
 }
@@ -26,9 +26,7 @@
 package hapax;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * The data dictionary contains the definition of variables, and
@@ -40,12 +38,27 @@ import java.util.Map;
  * The child scope of an include or section inherits and overrides the
  * data definitions of variables and sections from its ancestors.
  * 
+ * The variable and section tables are allocated on first write, so
+ * that an empty section iteration or show section costs only the
+ * dictionary object.  See {@link CompactMap}.
+ * 
+ * In the optional pooling mode, {@link #create()}, {@link
+ * #addSection(String)} and {@link #showSection(String)} draw
+ * dictionaries from a thread local pool, and {@link #renderComplete()}
+ * returns the tree to the pool of the rendering thread with its
+ * tables retained.  A dictionary and its sections must not be
+ * referenced after rendering in this mode.
+ * 
+ * Variables and sections may be deferred to a {@link Supplier} that
+ * is evaluated on first reference, so that data for regions the
+ * template doesn't show is never computed.
+ * 
  * @author dcoker
  * @author jdp
  */
 public class TemplateDictionary
     extends Object
-    implements TemplateDataDictionary
+    implements TemplateValueDictionary
 {
 
     /**
@@ -54,17 +67,151 @@ public class TemplateDictionary
      * @return a new TemplateDictionary
      */
     public static TemplateDictionary create() {
-        return new TemplateDictionary();
+        if (Pooling)
+            return Pool.Acquire(null);
+        else
+            return new TemplateDictionary();
+    }
+    /**
+     * Creates a dictionary layered over a shared parent, for example
+     * a {@link #freeze() frozen} dictionary.
+     *
+     * @return a new TemplateDictionary inheriting from the argument
+     */
+    public static TemplateDictionary create(TemplateDataDictionary parent) {
+        if (null == parent)
+            return create();
+        else if (Pooling)
+            return Pool.Acquire(parent);
+        else
+            return new TemplateDictionary(parent);
+    }
+    /**
+     * Enable or disable the pooling mode for dictionaries created
+     * after this call.
+     */
+    public static void setPooling(boolean enabled){
+        Pooling = enabled;
+    }
+    public static boolean isPooling(){
+        return Pooling;
+    }
+
+    private static volatile boolean Pooling = false;
+
+    /**
+     * Memo of a supplier shared by clones.
+     */
+    private final static class Deferred<T>
+        extends Object
+    {
+        private Supplier<T> supplier;
+
+        private T value;
+
+
+        Deferred(Supplier<T> supplier){
+            super();
+            if (null != supplier)
+                this.supplier = supplier;
+            else
+                throw new IllegalArgumentException();
+        }
+
+
+        T get(){
+            Supplier<T> supplier = this.supplier;
+            if (null != supplier){
+                this.value = supplier.get();
+                this.supplier = null;
+            }
+            return this.value;
+        }
     }
 
+    /**
+     * Thread local free list of dictionaries.
+     */
+    private final static class Pool
+        extends Object
+    {
+        private final static int Capacity = 0x400;
+
+        private final static ThreadLocal<Pool> Local = new ThreadLocal<Pool>(){
+            protected Pool initialValue(){
+                return new Pool();
+            }
+        };
+
+        static TemplateDictionary Acquire(TemplateDataDictionary parent){
+            Pool pool = Local.get();
+            TemplateDictionary dict;
+            int count = pool.count;
+            if (0 < count){
+                count -= 1;
+                dict = pool.free[count];
+                pool.free[count] = null;
+                pool.count = count;
+                dict.free = false;
+            }
+            else {
+                dict = new TemplateDictionary();
+                dict.recycle = true;
+            }
+            dict.parent = parent;
+            dict.annotations = (null != parent && parent.debugAnnotationsEnabled());
+            return dict;
+        }
+        static void Release(TemplateDictionary dict){
+            dict.free = true;
+            Pool pool = Local.get();
+            int count = pool.count;
+            if (count < Capacity){
+                pool.free[count] = dict;
+                pool.count = (count+1);
+            }
+        }
+
+
+        private final TemplateDictionary[] free = new TemplateDictionary[Capacity];
+
+        private int count;
 
-    protected LinkedHashMap<String, String> variables = new LinkedHashMap<String, String>();
 
-    protected LinkedHashMap<String, List<TemplateDataDictionary>> sections = new LinkedHashMap<String, List<TemplateDataDictionary>>();
+        private Pool(){
+            super();
+        }
+    }
+
+
+    /**
+     * String or Number values, null until first write
+     */
+    private CompactMap<Object> variables;
+    /**
+     * Null until first write
+     */
+    private CompactMap<List<TemplateDataDictionary>> sections;
+    /**
+     * Null until first write
+     */
+    private CompactMap<Deferred<String>> deferredVariables;
+    /**
+     * Null until first write
+     */
+    private CompactMap<Deferred<List<TemplateDataDictionary>>> deferredSections;
 
     protected TemplateDataDictionary parent;
     
     protected boolean annotations;
+    /**
+     * Created in pooling mode
+     */
+    private boolean recycle;
+    /**
+     * Held by pool
+     */
+    private boolean free;
 
 
     public TemplateDictionary() {
@@ -84,14 +231,33 @@ public class TemplateDictionary
      * Called by template render.
      */
     public void renderComplete(){
+        if (this.free)
+            return;
+
         this.parent = null;
-        this.variables.clear();
-        for (List<TemplateDataDictionary> section : this.sections.values()){
-            for (TemplateDataDictionary child: section){
-                child.renderComplete();
+        CompactMap<Object> variables = this.variables;
+        if (null != variables)
+            variables.clear();
+        CompactMap<List<TemplateDataDictionary>> sections = this.sections;
+        if (null != sections){
+            for (int cc = 0, count = sections.size(); cc < count; cc++){
+                List<TemplateDataDictionary> section = sections.valueAt(cc);
+                if (section instanceof SectionList)
+                    ((SectionList)section).renderComplete();
+                else {
+                    for (TemplateDataDictionary child: section){
+                        child.renderComplete();
+                    }
+                }
             }
+            sections.clear();
         }
-        this.sections.clear();
+        if (null != this.deferredVariables)
+            this.deferredVariables.clear();
+        if (null != this.deferredSections)
+            this.deferredSections.clear();
+        if (this.recycle)
+            Pool.Release(this);
     }
     /**
      * Deep clone of dictionary carries parent.
@@ -99,13 +265,21 @@ public class TemplateDictionary
     public TemplateDataDictionary clone(){
         try {
             TemplateDictionary clone = (TemplateDictionary)super.clone();
-            clone.variables = (LinkedHashMap<String, String>)this.variables.clone();
-            clone.sections = (LinkedHashMap<String, List<TemplateDataDictionary>>)this.sections.clone();
-            for (Map.Entry<String,List<TemplateDataDictionary>> entry : clone.sections.entrySet()){
-                List<TemplateDataDictionary> section = entry.getValue();
-                List<TemplateDataDictionary> sectionClone = SectionClone(clone,section);
-                entry.setValue(sectionClone);
+            if (null != this.variables)
+                clone.variables = this.variables.clone();
+            if (null != this.sections){
+                CompactMap<List<TemplateDataDictionary>> sections = this.sections.clone();
+                for (int cc = 0, count = sections.size(); cc < count; cc++){
+                    List<TemplateDataDictionary> section = sections.valueAt(cc);
+                    List<TemplateDataDictionary> sectionClone = SectionClone(clone,section);
+                    sections.setValueAt(cc,sectionClone);
+                }
+                clone.sections = sections;
             }
+            if (null != this.deferredVariables)
+                clone.deferredVariables = this.deferredVariables.clone();
+            if (null != this.deferredSections)
+                clone.deferredSections = this.deferredSections.clone();
             return clone;
         }
         catch (java.lang.CloneNotSupportedException exc){
@@ -125,13 +299,26 @@ public class TemplateDictionary
             throw new IllegalStateException();
     }
 
+    /**
+     * Copy this dictionary and its sections, excluding ancestors, into
+     * an immutable dictionary that is never cleared by rendering.  The
+     * frozen dictionary may be rendered repeatedly, and concurrently
+     * by any number of threads.  Deferred variables and sections are
+     * evaluated.
+     */
+    public FrozenDictionary freeze(){
+        return new FrozenDictionary(this);
+    }
+
     /*
      * Variable API
      */
 
     public boolean hasVariable(String varName) {
 
-        if (this.variables.containsKey(varName))
+        if (null != this.variables && this.variables.containsKey(varName))
+            return true;
+        else if (null != this.deferredVariables && this.deferredVariables.containsKey(varName))
             return true;
         else if (this.parent != null)
             return this.parent.hasVariable(varName);
@@ -140,11 +327,15 @@ public class TemplateDictionary
     }
     public String getVariable(String varName) {
 
-        String value = this.variables.get(varName);
+        Object value = (null != this.variables)?(this.variables.get(varName)):(null);
+
+        if (null == value && null != this.deferredVariables)
+
+            value = this.resolveVariable(varName);
 
         if (null != value)
 
-            return value;
+            return value.toString();
 
         else if (this.parent != null) 
 
@@ -152,13 +343,105 @@ public class TemplateDictionary
         else 
             return "";
     }
+    public Object getVariableValue(String varName) {
+
+        Object value = this.lookupVariableValue(varName);
+
+        if (null != value)
+
+            return value;
+
+        else if (this.parent != null) 
+
+            return VariableValue(this.parent,varName);
+        else 
+            return null;
+    }
+    /**
+     * @return Variable defined in this dictionary, evaluating a
+     * deferred variable, or null.
+     */
+    Object lookupVariableValue(String varName) {
+
+        Object value = (null != this.variables)?(this.variables.get(varName)):(null);
+
+        if (null == value && null != this.deferredVariables)
+
+            value = this.resolveVariable(varName);
+
+        return value;
+    }
     public void setVariable(String varName, String val) {
 
-        this.variables.put(varName, val);
+        this.define(varName, val);
+    }
+    /**
+     * Define variable evaluated at most once, when first referenced.
+     */
+    public void deferVariable(String varName, Supplier<String> val) {
+
+        CompactMap<Deferred<String>> deferred = this.deferredVariables;
+        if (null == deferred){
+            deferred = new CompactMap<Deferred<String>>();
+            this.deferredVariables = deferred;
+        }
+        deferred.put(varName, new Deferred<String>(val));
+
+        if (null != this.variables)
+            this.variables.remove(varName);
     }
+    /**
+     * Define a number, converted to text when rendered.
+     * 
+     * The number is boxed once here, rather than held in a primitive
+     * slot, because every reader of a variable value, including the
+     * renderer, takes it as an Object: a primitive slot would box on
+     * each lookup instead.  Small integers are boxed from the shared
+     * cache of Integer.valueOf.
+     * 
+     * A subclass that overrides {@link #setVariable(String,String)}
+     * receives the number as text from this method.
+     */
     public final void setVariable(String varName, int val) {
 
-        this.setVariable(varName, String.valueOf(val));
+        if (OverridesSetVariable(this.getClass()))
+            this.setVariable(varName, String.valueOf(val));
+        else
+            this.define(varName, Integer.valueOf(val));
+    }
+    /**
+     * Define a number, converted to text when rendered.
+     * @see #setVariable(String,int)
+     */
+    public final void setVariable(String varName, long val) {
+
+        if (OverridesSetVariable(this.getClass()))
+            this.setVariable(varName, String.valueOf(val));
+        else
+            this.define(varName, Long.valueOf(val));
+    }
+    /**
+     * Define a number, converted to text when rendered.
+     * @see #setVariable(String,int)
+     */
+    public final void setVariable(String varName, double val) {
+
+        if (OverridesSetVariable(this.getClass()))
+            this.setVariable(varName, String.valueOf(val));
+        else
+            this.define(varName, Double.valueOf(val));
+    }
+    private void define(String varName, Object val) {
+
+        CompactMap<Object> variables = this.variables;
+        if (null == variables){
+            variables = new CompactMap<Object>();
+            this.variables = variables;
+        }
+        variables.put(varName, val);
+
+        if (null != this.deferredVariables)
+            this.deferredVariables.remove(varName);
     }
 
     /*
@@ -167,11 +450,12 @@ public class TemplateDictionary
 
     public boolean hasNotSection(String sectionName){
 
-        return (!this.sections.containsKey(sectionName));
+        return (!this.hasSection(sectionName));
     }
     public boolean hasSection(String sectionName){
 
-        return (this.sections.containsKey(sectionName));
+        return ((null != this.sections && this.sections.containsKey(sectionName))
+                || (null != this.deferredSections && this.deferredSections.containsKey(sectionName)));
     }
     /**
      * @return a list of TemplateDictionaries that iterate the
@@ -179,7 +463,7 @@ public class TemplateDictionary
      */
     public List<TemplateDataDictionary> getSection(String sectionName) {
 
-        List<TemplateDataDictionary> list = this.sections.get(sectionName);
+        List<TemplateDataDictionary> list = this.section(sectionName);
         if (null != list)
             return list;
         else {
@@ -194,20 +478,66 @@ public class TemplateDictionary
 
                     ancestor = SectionClone(this,ancestor);
 
-                    this.sections.put(sectionName,ancestor);
+                    this.sections().put(sectionName,ancestor);
 
                     return ancestor;
                 }
             }
             /*
-             * Synthesize section
+             * Synthesize section.  An ancestor has no section,
+             * including one synthesized from its variables.
              */
-            if (this.hasVariable(sectionName))
+            if (null != parent){
+                if ((null != this.variables && this.variables.containsKey(sectionName))
+                    || (null != this.deferredVariables && this.deferredVariables.containsKey(sectionName)))
+
+                    return this.showSection(sectionName);
+                else
+                    return null;
+            }
+            else if (this.hasVariable(sectionName))
                 return this.showSection(sectionName);
             else
                 return null;
         }
     }
+    /**
+     * Row of a section by index, as seen from this dictionary.  A row
+     * of an inherited section is a view of the one row, and the
+     * section is not copied into this dictionary as by {@link
+     * #getSection(String)}.
+     * 
+     * @return A row of a visible section, or null
+     * @see Name
+     */
+    public TemplateDataDictionary getSectionRow(String sectionName, int index) {
+
+        List<TemplateDataDictionary> list = this.section(sectionName);
+        if (null == list){
+            TemplateDataDictionary parent = this.parent;
+            TemplateDataDictionary ancestor;
+            if (parent instanceof TemplateDictionary)
+                ancestor = ((TemplateDictionary)parent).getSectionRow(sectionName,index);
+            else if (null != parent){
+                List<TemplateDataDictionary> section = parent.getSection(sectionName);
+                ancestor = (null != section && index < section.size())?(section.get(index)):(null);
+            }
+            else
+                ancestor = null;
+
+            if (null != ancestor)
+                return ancestor.clone(this);
+            else
+                /*
+                 * Synthesized section
+                 */
+                list = this.getSection(sectionName);
+        }
+        if (null != list && index < list.size())
+            return list.get(index);
+        else
+            return null;
+    }
     /**
      * An aid to usage
      * @param from Embedded section or include name
@@ -230,12 +560,12 @@ public class TemplateDictionary
     }
     public TemplateDataDictionary addSection(String sectionName) {
 
-        TemplateDictionary add = new TemplateDictionary(this);
+        TemplateDictionary add = this.child();
 
-        List<TemplateDataDictionary> section = this.sections.get(sectionName);
+        List<TemplateDataDictionary> section = this.section(sectionName);
         if (null == section){
             section = new ArrayList<TemplateDataDictionary>();
-            this.sections.put(sectionName, section);
+            this.sections().put(sectionName, section);
         }
 
         section.add(add);
@@ -256,12 +586,12 @@ public class TemplateDictionary
      */
     public List<TemplateDataDictionary> showSection(String sectionName) {
 
-        List<TemplateDataDictionary> section = this.sections.get(sectionName);
+        List<TemplateDataDictionary> section = this.section(sectionName);
         if (null == section){
-            section = new ArrayList<TemplateDataDictionary>();
-            TemplateDictionary show = new TemplateDictionary(this);
+            section = new ArrayList<TemplateDataDictionary>(1);
+            TemplateDictionary show = this.child();
             section.add(show);
-            this.sections.put(sectionName, section);
+            this.sections().put(sectionName, section);
         }
         return section;
     }
@@ -274,9 +604,41 @@ public class TemplateDictionary
         this.setVariable(from,to);
         return this.showSection(from);
     }
+    /**
+     * Define section evaluated at most once, when first referenced.
+     * Section data dictionaries created without a parent are adopted
+     * into the scope of this dictionary.  A null section is not
+     * visible.
+     */
+    public void deferSection(String sectionName, Supplier<List<TemplateDataDictionary>> section) {
+
+        CompactMap<Deferred<List<TemplateDataDictionary>>> deferred = this.deferredSections;
+        if (null == deferred){
+            deferred = new CompactMap<Deferred<List<TemplateDataDictionary>>>();
+            this.deferredSections = deferred;
+        }
+        deferred.put(sectionName, new Deferred<List<TemplateDataDictionary>>(section));
+
+        if (null != this.sections)
+            this.sections.remove(sectionName);
+    }
+    /**
+     * Define section from section data that is not held as a list of
+     * dictionaries, for example a {@link SectionStream}.
+     */
+    public void setSection(String sectionName, SectionList section) {
+
+        this.sections().put(sectionName, section.scope(this));
+
+        if (null != this.deferredSections)
+            this.deferredSections.remove(sectionName);
+    }
     public void hideSection(String sectionName) {
 
-        this.sections.remove(sectionName);
+        if (null != this.sections)
+            this.sections.remove(sectionName);
+        if (null != this.deferredSections)
+            this.deferredSections.remove(sectionName);
     }
     /**
      * An aid to usage
@@ -285,26 +647,189 @@ public class TemplateDictionary
      */
     public void hideSection(String from, String to){
 
-        this.sections.remove(from);
+        this.hideSection(from);
+    }
+    /**
+     * @return New section data dictionary
+     */
+    private TemplateDictionary child(){
+        if (Pooling)
+            return Pool.Acquire(this);
+        else
+            return new TemplateDictionary(this);
+    }
+    /**
+     * @return Section defined in this dictionary, evaluating a
+     * deferred section.
+     */
+    private List<TemplateDataDictionary> section(String sectionName){
+        List<TemplateDataDictionary> section = (null != this.sections)?(this.sections.get(sectionName)):(null);
+        if (null == section && null != this.deferredSections)
+            return this.resolveSection(sectionName);
+        else
+            return section;
+    }
+    private String resolveVariable(String varName){
+        Deferred<String> deferred = this.deferredVariables.remove(varName);
+        if (null != deferred){
+            String value = deferred.get();
+            this.setVariable(varName,value);
+            return value;
+        }
+        else
+            return null;
+    }
+    private List<TemplateDataDictionary> resolveSection(String sectionName){
+        Deferred<List<TemplateDataDictionary>> deferred = this.deferredSections.remove(sectionName);
+        if (null != deferred){
+            List<TemplateDataDictionary> rows = deferred.get();
+            if (rows instanceof SectionList){
+                List<TemplateDataDictionary> section = ((SectionList)rows).scope(this);
+                this.sections().put(sectionName,section);
+                return section;
+            }
+            else if (null != rows){
+                List<TemplateDataDictionary> section = new ArrayList<TemplateDataDictionary>(rows.size());
+                for (TemplateDataDictionary row : rows){
+                    section.add(Adopt(this,row));
+                }
+                this.sections().put(sectionName,section);
+                return section;
+            }
+        }
+        return null;
+    }
+    /**
+     * Evaluate deferred variables and sections.
+     */
+    void resolveDeferred(){
+        CompactMap<Deferred<String>> variables = this.deferredVariables;
+        if (null != variables){
+            while (0 != variables.size())
+                this.resolveVariable(variables.keyAt(0));
+        }
+        CompactMap<Deferred<List<TemplateDataDictionary>>> sections = this.deferredSections;
+        if (null != sections){
+            while (0 != sections.size())
+                this.resolveSection(sections.keyAt(0));
+        }
+    }
+    /**
+     * @return Variable table of String and Number values, or null
+     * before the first write
+     */
+    protected final CompactMap<Object> getVariableTable(){
+        return this.variables;
+    }
+    /**
+     * @return Section table, or null before the first write
+     */
+    protected final CompactMap<List<TemplateDataDictionary>> getSectionTable(){
+        return this.sections;
+    }
+    /**
+     * @return Deferred variables by name, unevaluated, or null
+     */
+    final CompactMap<?> getDeferredVariableTable(){
+        return this.deferredVariables;
+    }
+    /**
+     * @return Deferred sections by name, unevaluated, or null
+     */
+    final CompactMap<?> getDeferredSectionTable(){
+        return this.deferredSections;
+    }
+    /**
+     * @return Section table, allocated on first write
+     */
+    protected final CompactMap<List<TemplateDataDictionary>> sections(){
+        CompactMap<List<TemplateDataDictionary>> sections = this.sections;
+        if (null == sections){
+            sections = new CompactMap<List<TemplateDataDictionary>>();
+            this.sections = sections;
+        }
+        return sections;
+    }
+
+    /**
+     * Subclasses by whether they override setVariable(String,String).
+     * Weakly keyed, so as not to hold a class loader.
+     */
+    private final static java.util.Map<Class<?>,Boolean> Overrides = java.util.Collections.synchronizedMap(new java.util.WeakHashMap<Class<?>,Boolean>());
+    /**
+     * @return The class overrides setVariable(String,String)
+     */
+    private final static boolean OverridesSetVariable(Class<?> type){
+        if (TemplateDictionary.class == type)
+            return false;
+        else {
+            Boolean overrides = Overrides.get(type);
+            if (null == overrides){
+                try {
+                    Class<?> declaring = type.getMethod("setVariable",String.class,String.class).getDeclaringClass();
+                    overrides = Boolean.valueOf(TemplateDictionary.class != declaring);
+                }
+                catch (NoSuchMethodException exc){
+                    overrides = Boolean.FALSE;
+                }
+                Overrides.put(type,overrides);
+            }
+            return overrides.booleanValue();
+        }
+    }
+    /**
+     * @return Variable value as a String or Number from a {@link
+     * TemplateValueDictionary}, otherwise the string value
+     */
+    public final static Object VariableValue(TemplateDataDictionary dict, String name){
+        if (dict instanceof TemplateValueDictionary)
+            return ((TemplateValueDictionary)dict).getVariableValue(name);
+        else
+            return dict.getVariable(name);
     }
 
     public final static List<TemplateDataDictionary> SectionClone(TemplateDataDictionary parent, List<TemplateDataDictionary> section){
 
-        List<TemplateDataDictionary> sectionClone = (List<TemplateDataDictionary>)((ArrayList<TemplateDataDictionary>)section).clone();
+        if (section instanceof SectionList)
+
+            return ((SectionList)section).scope(parent);
+
+        int sectionCount = section.size();
+
+        List<TemplateDataDictionary> sectionClone = new ArrayList<TemplateDataDictionary>(sectionCount);
 
-        for (int sectionIndex = 0, sectionCount = sectionClone.size(); sectionIndex < sectionCount; sectionIndex++){
-            TemplateDataDictionary sectionItem = sectionClone.get(sectionIndex);
+        for (int sectionIndex = 0; sectionIndex < sectionCount; sectionIndex++){
+            TemplateDataDictionary sectionItem = section.get(sectionIndex);
             TemplateDataDictionary sectionItemClone = sectionItem.clone(parent);
-            sectionClone.set(sectionIndex,sectionItemClone);
+            sectionClone.add(sectionItemClone);
         }
 
         return sectionClone;
     }
 
+    /**
+     * @return Section data dictionary in the scope of the parent.  A
+     * dictionary created without a parent is adopted, and another is
+     * cloned.
+     */
+    final static TemplateDataDictionary Adopt(TemplateDataDictionary parent, TemplateDataDictionary row){
+        TemplateDataDictionary rowParent = row.getParent();
+        if (parent == rowParent)
+            return row;
+        else if (null == rowParent && row instanceof TemplateDictionary){
+            TemplateDictionary child = (TemplateDictionary)row;
+            child.parent = parent;
+            child.annotations = (child.annotations || parent.debugAnnotationsEnabled());
+            return child;
+        }
+        else
+            return row.clone(parent);
+    }
+
     public void enableDebugAnnotations() { annotations = true; }
     public boolean debugAnnotationsEnabled() { return annotations; }
 
     public String toString() {
-        return "{" + variables + ", " + sections + "}";
+        return "{" + ((null != variables)?(variables):("{}")) + ", " + ((null != sections)?(sections):("{}")) + "}";
     }
 }
@@ -0,0 +1,244 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The variable, section and template names that a template may
+ * reference in rendering, including the templates it includes.
+ * 
+ * An include with a quoted name is followed to its template.  An
+ * include with an unquoted name is followed to the template of the
+ * same name, and the name is also a variable, as it may redirect the
+ * include to another template.  Iteration marker sections (see
+ * {@link Iterator}) are not data, and are not listed.  A name path
+ * lists each of its components.
+ * 
+ * An included template that fails to load is listed by {@link
+ * #getFailures()}, and its names are missing from the manifest.  The
+ * manifest of a template is determined again when an included
+ * template has been reloaded, or has failed to load.
+ * 
+ * An application may use the manifest to omit data a template never
+ * renders, and a test may use {@link #unused(TemplateDataDictionary)}
+ * to find data defined and never rendered.
+ * 
+ * @see Template#getManifest()
+ * @author jdp
+ */
+public final class TemplateManifest
+    extends Object
+{
+
+    /**
+     * An include as loaded for the manifest.
+     */
+    final static class Include
+        extends Object
+    {
+        final TemplateLoader context;
+        final String name;
+        final Template template;
+        final TemplateException failure;
+
+
+        Include(TemplateLoader context, String name, Template template, TemplateException failure){
+            super();
+            this.context = context;
+            this.name = name;
+            this.template = template;
+            this.failure = failure;
+        }
+
+
+        /**
+         * @return The loader has the same template for the name
+         */
+        boolean isCurrent(){
+            if (null != this.failure)
+                return false;
+            else {
+                try {
+                    return (this.template == this.context.getTemplate(this.name));
+                }
+                catch (TemplateException exc){
+                    return false;
+                }
+            }
+        }
+    }
+
+
+    private final Set<String> variables, sections, templates;
+
+    private final Map<String,TemplateException> failures;
+
+    private final Include[] includes;
+
+
+    TemplateManifest(Template template){
+        super();
+        Set<String> variables = new TreeSet<String>();
+        Set<String> sections = new TreeSet<String>();
+        Set<String> templates = new TreeSet<String>();
+        List<Include> includes = new ArrayList<Include>();
+        template.manifest(variables,sections,templates,includes,new HashSet<Template>());
+        Map<String,TemplateException> failures = new TreeMap<String,TemplateException>();
+        for (Include include : includes){
+            if (null != include.failure)
+                failures.put(include.name,include.failure);
+        }
+        this.variables = Collections.unmodifiableSet(variables);
+        this.sections = Collections.unmodifiableSet(sections);
+        this.templates = Collections.unmodifiableSet(templates);
+        this.failures = Collections.unmodifiableMap(failures);
+        this.includes = includes.toArray(new Include[includes.size()]);
+    }
+
+
+    /**
+     * @return Sorted variable names
+     */
+    public Set<String> getVariables(){
+        return this.variables;
+    }
+    /**
+     * @return Sorted section and include names
+     */
+    public Set<String> getSections(){
+        return this.sections;
+    }
+    /**
+     * @return Sorted names of included templates that were found
+     */
+    public Set<String> getTemplates(){
+        return this.templates;
+    }
+    /**
+     * @return Names of included templates that failed to load, with
+     * their errors, or empty
+     */
+    public Map<String,TemplateException> getFailures(){
+        return this.failures;
+    }
+    public boolean hasFailures(){
+        return (!this.failures.isEmpty());
+    }
+    /**
+     * @return Every included template was loaded, and is the template
+     * its loader has now
+     */
+    boolean isCurrent(){
+        for (Include include : this.includes){
+            if (!include.isCurrent())
+                return false;
+        }
+        return true;
+    }
+    public boolean hasVariable(String name){
+        return this.variables.contains(name);
+    }
+    public boolean hasSection(String name){
+        return this.sections.contains(name);
+    }
+    /**
+     * @return Variable or section name
+     */
+    public boolean isReferenced(String name){
+        return (this.variables.contains(name) || this.sections.contains(name));
+    }
+    /**
+     * A variable or section name is unused when the template has no
+     * reference to it.  A variable is a section, in the manner of
+     * {@link TemplateDictionary}.  Deferred variables and sections
+     * are included, and are not evaluated.
+     * 
+     * @param dict Data for the template
+     * @return Unused names in the dictionary and its section data,
+     * as slash delimited paths from the argument.
+     */
+    public List<String> unused(TemplateDataDictionary dict){
+        List<String> unused = new ArrayList<String>();
+        this.unused(dict,"",unused);
+        return unused;
+    }
+    private void unused(TemplateDataDictionary dict, String prefix, List<String> unused){
+        if (dict instanceof TemplateDictionary){
+            TemplateDictionary data = (TemplateDictionary)dict;
+            CompactMap<Object> variables = data.getVariableTable();
+            if (null != variables){
+                for (int cc = 0, count = variables.size(); cc < count; cc++){
+                    String name = variables.keyAt(cc);
+                    if (!this.isReferenced(name))
+                        unused.add(prefix+name);
+                }
+            }
+            CompactMap<?> deferred = data.getDeferredVariableTable();
+            if (null != deferred){
+                for (int cc = 0, count = deferred.size(); cc < count; cc++){
+                    String name = deferred.keyAt(cc);
+                    if (!this.isReferenced(name))
+                        unused.add(prefix+name);
+                }
+            }
+            deferred = data.getDeferredSectionTable();
+            if (null != deferred){
+                for (int cc = 0, count = deferred.size(); cc < count; cc++){
+                    String name = deferred.keyAt(cc);
+                    if (!this.sections.contains(name))
+                        unused.add(prefix+name);
+                }
+            }
+            CompactMap<List<TemplateDataDictionary>> sections = data.getSectionTable();
+            if (null != sections){
+                for (int cc = 0, count = sections.size(); cc < count; cc++){
+                    String name = sections.keyAt(cc);
+                    if (!this.sections.contains(name))
+                        unused.add(prefix+name);
+                    else {
+                        List<TemplateDataDictionary> section = sections.valueAt(cc);
+                        if (!(section instanceof SectionStream)){
+                            for (int row = 0, rows = section.size(); row < rows; row++){
+                                this.unused(section.get(row),(prefix+name+'['+row+"]/"),unused);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+    public String toString(){
+        return "{variables="+this.variables+", sections="+this.sections+", templates="+this.templates+", failures="+this.failures.keySet()+"}";
+    }
+}
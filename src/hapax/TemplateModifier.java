@@ -0,0 +1,53 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+import java.io.PrintWriter;
+
+/**
+ * A user defined modifier, registered by name with {@link
+ * Modifiers#register Modifiers}.  Template modifiers are resolved by
+ * the parser, and applied in sequence with the built in modifiers, as
+ * in <code>{{NAME:truncate=20:h}}</code>.
+ * 
+ * A modifier is a stage in the output of a variable or include: a
+ * writer that modifies its input as it's written into the next stage.
+ * The output of an include streams through its modifiers without
+ * being held.  A modifier is a function of its input and argument, as
+ * modified values may be cached for the duration of a render.
+ *
+ * @author jdp
+ */
+public interface TemplateModifier {
+    /**
+     * @param argument Text following "=" in the modifier name, or null
+     * @param out Output, or the next modifier in a sequence
+     * @return Writer modifying its input into the output.  Closing
+     * the writer completes its output, and must not close the output.
+     */
+    public PrintWriter writer(String argument, PrintWriter out);
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax;
+
+/**
+ * A data dictionary with variable values that are not only strings.
+ * The renderer formats a Number value from this dictionary without
+ * converting it to a string in the dictionary.  Other implementations
+ * of {@link TemplateDataDictionary} are rendered by {@link
+ * TemplateDataDictionary#getVariable(String) getVariable}.
+ * 
+ * @see TemplateDictionary#VariableValue(TemplateDataDictionary,String)
+ * @author jdp
+ */
+public interface TemplateValueDictionary
+    extends TemplateDataDictionary
+{
+    /**
+     * @return Variable value from this or parent as a String or
+     * Number, or null
+     */
+    public Object getVariableValue(String name);
+
+}
@@ -50,6 +50,19 @@ public final class CTemplateParser
      * Shared stateless C template parser.
      */
     public final static TemplateParser Instance = new CTemplateParser();
+    /**
+     * Shared stateless contextual C template parser.  Variables are
+     * escaped for their HTML, attribute, script or URL context, as
+     * determined from the template text at parse time.  A variable
+     * with an escaping modifier is escaped only as written, and the
+     * "none" modifier is raw output, as in "{{NAME:none}}".  A
+     * variable starting a URL attribute value is filtered by URL
+     * scheme, and a variable in style content requires an explicit
+     * modifier.  Each template is scanned from the text context, so
+     * an include is accepted only in text, and not within a tag,
+     * comment, script or style.
+     */
+    public final static TemplateParser Contextual = new CTemplateParser(true);
     /**
      * Parse and render a C template.
      */
@@ -73,8 +86,23 @@ public final class CTemplateParser
 
 
 
+    private final boolean contextual;
+
+
     public CTemplateParser() {
+        this(false);
+    }
+    /**
+     * @param contextual Bind context escaping modifiers to variables
+     */
+    public CTemplateParser(boolean contextual) {
         super();
+        this.contextual = contextual;
+    }
+
+
+    public boolean isContextual() {
+        return this.contextual;
     }
 
 
@@ -124,6 +152,7 @@ public final class CTemplateParser
         List<TemplateNode> list = new java.util.ArrayList<TemplateNode>();
         ParserReader input = new ParserReader(template);
         TemplateNode node = null;
+        HtmlContext html = (this.contextual)?(new HtmlContext()):(null);
         while (true) {
             switch (next(input)) {
             case OPEN_SECTION:
@@ -133,12 +162,16 @@ public final class CTemplateParser
                 node = parseCloseSection(input);
                 break;
             case VARIABLE:
-                node = parseVariable(input);
+                node = parseVariable(input, html);
                 break;
             case TEXT_NODE:
                 node = parseTextNode(input);
+                if (null != html && null != node)
+                    html.scan(((TextNode)node).getText());
                 break;
             case INCLUDE_SECTION:
+                if (null != html && !html.isText())
+                    throw new TemplateParserException("Include in "+html.getState()+" context at line "+input.lineNumber()+" would not be escaped for its context");
                 node = parseInclude(input);
                 break;
             case COMMENT:
@@ -217,7 +250,7 @@ public final class CTemplateParser
         String token = consumed.substring(3,consumed.length()-2).trim();
         return (new IncludeNode(lno,token,indentation));
     }
-    private static TemplateNode parseVariable(ParserReader input)
+    private static TemplateNode parseVariable(ParserReader input, HtmlContext html)
         throws TemplateParserException
     {
         int lno = input.lineNumber();
@@ -227,7 +260,10 @@ public final class CTemplateParser
             token = consumed.substring(3,consumed.length()-2).trim();
         else
             token = consumed.substring(2,consumed.length()-2).trim();
-        return (new VariableNode(lno,token));
+        if (null != html)
+            return (new VariableNode(lno,token,html.variable()));
+        else
+            return (new VariableNode(lno,token));
     }
     private static TemplateNode parseCloseSection(ParserReader input)
         throws TemplateParserException
@@ -25,6 +25,7 @@
  */
 package hapax.parser;
 
+import hapax.RenderFrame;
 import hapax.TemplateDataDictionary;
 import hapax.TemplateLoader;
 
@@ -50,7 +51,7 @@ public final class CommentNode
 
     @Override
     public void evaluate(TemplateDataDictionary dict, TemplateLoader context,
-                         PrintWriter collector)
+                         PrintWriter collector, RenderFrame frame)
     {
     }
 }
@@ -0,0 +1,371 @@
+/*
+ * Hapax2
+ * Copyright (c) 2007 Doug Coker
+ * Copyright (c) 2009 John Pritchard
+ * 
+ * The MIT License
+ *  
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hapax.parser;
+
+import hapax.Modifiers;
+
+/**
+ * HTML context scanner for the contextual parser.  The text nodes of
+ * a template are scanned in order, and each variable is bound to the
+ * modifier for the context in which it occurs.
+ * 
+ * <dl>
+ * <dt> Text, tags and attribute values </dt> <dd> {@link Modifiers.FLAGS#H H} </dd>
+ * <dt> Script bodies and event handler attributes </dt> <dd> {@link Modifiers.FLAGS#J J} </dd>
+ * <dt> URL attribute values after their first character </dt> <dd> {@link Modifiers.FLAGS#U U} </dd>
+ * <dt> URL attribute values at their first character </dt> <dd> {@link Modifiers.SafeUrl safeurl}, {@link Modifiers.FLAGS#H H} </dd>
+ * <dt> Style bodies and style attributes </dt> <dd> None </dd>
+ * </dl>
+ * 
+ * A variable at the start of a URL attribute value is a whole or
+ * leading URL, and is HTML escaped to keep its scheme and path
+ * intact, after replacing a URL with a scheme other than http, https
+ * or mailto.  There is no modifier to escape CSS, so a variable in
+ * style content must be given one explicitly.  The scanner is not a
+ * validating parser: sections are scanned in source order as if they
+ * were shown.  An included template is scanned from the text context,
+ * independently, so an include is only valid in text (see {@link
+ * #isText()}).
+ * 
+ * @author jdp
+ */
+final class HtmlContext
+    extends Object
+{
+    private enum State {
+        Text, TagOpen, TagName, Tag, AttrName, AfterAttrName, BeforeValue, Value, Markup, Declaration, Comment, Script, Style;
+    }
+    private enum Attr {
+        Plain, Url, Script, Style;
+    }
+    /**
+     * Escaping of a variable in its context.
+     */
+    enum Context {
+        Html(Modifiers.FLAGS.H, false),
+        Script(Modifiers.FLAGS.J, false),
+        Url(Modifiers.FLAGS.U, false),
+        UrlStart(Modifiers.FLAGS.H, true),
+        Css(null, false);
+
+        /**
+         * Escaping modifier, or null for none
+         */
+        final Modifiers.FLAGS escape;
+        /**
+         * Apply the URL scheme filter
+         */
+        final boolean scheme;
+
+        Context(Modifiers.FLAGS escape, boolean scheme){
+            this.escape = escape;
+            this.scheme = scheme;
+        }
+    }
+    private final static String ScriptClose = "</script";
+    private final static String StyleClose = "</style";
+    private final static String CommentClose = "-->";
+
+    private final static java.util.Set<String> UrlAttributes = new java.util.HashSet<String>(java.util.Arrays.asList(new String[]{
+                "action", "archive", "background", "cite", "classid", "codebase", "data",
+                "formaction", "href", "icon", "longdesc", "manifest", "poster", "profile",
+                "src", "usemap", "xmlns"
+            }));
+
+
+    private State state = State.Text;
+
+    private Attr attr = Attr.Plain;
+
+    private final StringBuilder name = new StringBuilder();
+
+    private String tag;
+    /**
+     * Attribute value quote, or zero for an unquoted value
+     */
+    private char quote;
+    /**
+     * No value has been written into the current attribute value
+     */
+    private boolean start;
+    /**
+     * Progress matching a close sequence
+     */
+    private int match;
+
+
+    HtmlContext(){
+        super();
+    }
+
+
+    /**
+     * @return The current position is in text content, where an
+     * included template starts
+     */
+    boolean isText(){
+        return (State.Text == this.state);
+    }
+    /**
+     * @return Name of the current scanner state
+     */
+    String getState(){
+        return this.state.name().toLowerCase();
+    }
+    /**
+     * @return Context of a variable at the current position
+     */
+    Context variable(){
+        switch (this.state){
+        case Script:
+            return Context.Script;
+        case Style:
+            return Context.Css;
+        case BeforeValue:
+            this.value((char)0);
+            return this.value();
+        case Value:
+            return this.value();
+        default:
+            return Context.Html;
+        }
+    }
+    /**
+     * @return Context of a variable in an attribute value
+     */
+    private Context value(){
+        boolean start = this.start;
+        this.start = false;
+        switch (this.attr){
+        case Script:
+            return Context.Script;
+        case Style:
+            return Context.Css;
+        case Url:
+            return (start)?(Context.UrlStart):(Context.Url);
+        default:
+            return Context.Html;
+        }
+    }
+    /**
+     * Advance over template text.
+     */
+    void scan(String text){
+        for (int cc = 0, count = text.length(); cc < count; cc++){
+            this.scan(text.charAt(cc));
+        }
+    }
+    private void scan(char ch){
+        switch (this.state){
+        case Text:
+            if ('<' == ch){
+                this.state = State.TagOpen;
+                this.name.setLength(0);
+            }
+            break;
+        case TagOpen:
+            if ('!' == ch){
+                this.state = State.Markup;
+                this.match = 0;
+            }
+            else if ('/' == ch || Character.isLetter(ch)){
+                this.state = State.TagName;
+                this.name.append(Character.toLowerCase(ch));
+            }
+            else if ('<' != ch)
+                this.state = State.Text;
+            break;
+        case TagName:
+            if ('>' == ch || '/' == ch || Character.isWhitespace(ch)){
+                this.tag = this.name.toString();
+                this.state = State.Tag;
+                if ('>' == ch)
+                    this.content();
+            }
+            else
+                this.name.append(Character.toLowerCase(ch));
+            break;
+        case Tag:
+            if ('>' == ch)
+                this.content();
+            else if ('/' != ch && !Character.isWhitespace(ch)){
+                this.state = State.AttrName;
+                this.name.setLength(0);
+                this.name.append(Character.toLowerCase(ch));
+            }
+            break;
+        case AttrName:
+            if ('=' == ch){
+                this.attribute();
+                this.state = State.BeforeValue;
+            }
+            else if ('>' == ch)
+                this.content();
+            else if (Character.isWhitespace(ch))
+                this.state = State.AfterAttrName;
+            else if ('/' == ch)
+                this.state = State.Tag;
+            else
+                this.name.append(Character.toLowerCase(ch));
+            break;
+        case AfterAttrName:
+            if ('=' == ch){
+                this.attribute();
+                this.state = State.BeforeValue;
+            }
+            else if ('>' == ch)
+                this.content();
+            else if (!Character.isWhitespace(ch)){
+                this.state = State.AttrName;
+                this.name.setLength(0);
+                this.name.append(Character.toLowerCase(ch));
+            }
+            break;
+        case BeforeValue:
+            if ('"' == ch || '\'' == ch)
+                this.value(ch);
+            else if ('>' == ch)
+                this.content();
+            else if (!Character.isWhitespace(ch)){
+                this.value((char)0);
+                this.start = false;
+            }
+            break;
+        case Value:
+            if (0 == this.quote){
+                if ('>' == ch)
+                    this.content();
+                else if (Character.isWhitespace(ch))
+                    this.state = State.Tag;
+                else
+                    this.start = false;
+            }
+            else if (this.quote == ch)
+                this.state = State.Tag;
+            else
+                this.start = false;
+            break;
+        case Markup:
+            if ('-' == ch){
+                this.match += 1;
+                if (2 == this.match){
+                    this.state = State.Comment;
+                    this.match = 0;
+                }
+            }
+            else if ('>' == ch)
+                this.state = State.Text;
+            else
+                this.state = State.Declaration;
+            break;
+        case Declaration:
+            if ('>' == ch)
+                this.state = State.Text;
+            break;
+        case Comment:
+            if (this.close(CommentClose, ch))
+                this.state = State.Text;
+            break;
+        case Script:
+            if (this.close(ScriptClose, ch))
+                this.end();
+            break;
+        case Style:
+            if (this.close(StyleClose, ch))
+                this.end();
+            break;
+        }
+    }
+    /**
+     * Attribute name complete
+     */
+    private void attribute(){
+        String name = this.name.toString();
+        if (name.startsWith("on"))
+            this.attr = Attr.Script;
+        else if ("style".equals(name))
+            this.attr = Attr.Style;
+        else if (UrlAttributes.contains(name))
+            this.attr = Attr.Url;
+        else
+            this.attr = Attr.Plain;
+    }
+    /**
+     * Attribute value opened
+     * @param quote Quote character or zero
+     */
+    private void value(char quote){
+        this.state = State.Value;
+        this.quote = quote;
+        this.start = true;
+    }
+    /**
+     * Tag closed
+     */
+    private void content(){
+        this.match = 0;
+        if ("script".equals(this.tag))
+            this.state = State.Script;
+        else if ("style".equals(this.tag))
+            this.state = State.Style;
+        else
+            this.state = State.Text;
+    }
+    /**
+     * Element close tag matched, continue into the close tag
+     */
+    private void end(){
+        this.state = State.TagName;
+        this.name.setLength(0);
+        this.name.append(("/"+this.tag));
+    }
+    /**
+     * @return Close sequence matched
+     */
+    private boolean close(String sequence, char ch){
+        int match = this.match;
+        if (Character.toLowerCase(ch) == sequence.charAt(match))
+            match += 1;
+        else if (0 < match && sequence.charAt(match-1) == ch && sequence.charAt(0) == ch)
+            /*
+             * Repeat of a leading character, as "--->"
+             */
+            ;
+        else if (sequence.charAt(0) == ch)
+            match = 1;
+        else
+            match = 0;
+
+        if (match == sequence.length()){
+            this.match = 0;
+            return true;
+        }
+        else {
+            this.match = match;
+            return false;
+        }
+    }
+}
@@ -25,16 +25,18 @@
  */
 package hapax.parser;
 
-import hapax.Iterator;
 import hapax.Modifiers;
+import hapax.ColumnSection;
 import hapax.Path;
+import hapax.RenderFrame;
+import hapax.SectionList;
+import hapax.SectionStream;
 import hapax.Template;
 import hapax.TemplateDataDictionary;
 import hapax.TemplateException;
 import hapax.TemplateLoader;
 
 import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.text.MessageFormat;
 import java.util.List;
 
@@ -52,7 +54,7 @@ public final class IncludeNode
     private final String name;
     private final String indentation;
 
-    final List<Modifiers.FLAGS> modifiers;
+    final Modifiers.Chain modifiers;
 
 
     IncludeNode(int lno, String spec, String indentation) {
@@ -60,20 +62,33 @@ public final class IncludeNode
         String split[] = spec.split(":");
         this.name = split[0];
         this.indentation = indentation;
-        this.modifiers = Modifiers.parseModifiersWithIndentation(split, indentation);
+        this.modifiers = Modifiers.compile(split, indentation);
     }
 
 
     public String getSectionName(){
         return this.name;
     }
+    /**
+     * @return Template name without a redirect variable
+     */
+    public String getTemplateName(){
+        return TrimQuotes(this.name);
+    }
+    /**
+     * @return The name is not quoted, and a variable of the same name
+     * will redirect the include
+     */
+    public boolean isRedirect(){
+        return ('"' != this.name.charAt(0));
+    }
     @Override
-    public final void evaluate(TemplateDataDictionary dict, TemplateLoader context, PrintWriter out)
+    public final void evaluate(TemplateDataDictionary dict, TemplateLoader context, PrintWriter out, RenderFrame frame)
         throws TemplateException
     {
         String sectionName = this.name;
 
-        List<TemplateDataDictionary> section = dict.getSection(sectionName);
+        List<TemplateDataDictionary> section = frame.getSection(dict,sectionName);
 
         if (null != section){
 
@@ -85,63 +100,103 @@ public final class IncludeNode
                  * Modified rendering
                  */
                 PrintWriter previous_printwriter = null;
-                StringWriter sw = null;
-                if (!this.modifiers.isEmpty()) {
+                if (null != this.modifiers) {
                     previous_printwriter = out;
-                    sw = new StringWriter();
-                    out = new PrintWriter(sw);
+                    out = this.modifiers.writer(out);
                 }
 
-                if (section.size() == 0) {
+                try {
+                    RenderFrame iteration = frame.enter(sectionName);
 
-                    Iterator.Define(dict,sectionName,0,1);
-                    /*
-                     * Once
-                     */
-                    if (dict.debugAnnotationsEnabled()) {
-                        out.write("{{#INC=");
-                        out.write(this.name);
-                        out.write("}}");
-                    }
-                    template.render(dict, out);
-                    if (dict.debugAnnotationsEnabled()) {
-                        out.write("{{/INC}}");
-                    }
-                }
-                else {
-                    /*
-                     * Repeat
-                     */
-                    for (int cc = 0, count = section.size(); cc < count; cc++){
+                    if (section instanceof SectionStream) {
+                        /*
+                         * Stream
+                         */
+                        java.util.Iterator<TemplateDataDictionary> rows = section.iterator();
 
-                        TemplateDataDictionary child = section.get(cc);
+                        TemplateDataDictionary child = (rows.hasNext())?(rows.next()):(null);
 
-                        Iterator.Define(child,sectionName,cc,count);
+                        for (int cc = 0; null != child; cc++){
 
+                            TemplateDataDictionary following = (rows.hasNext())?(rows.next()):(null);
+
+                            iteration.iterate(cc,(null == following));
+
+                            if (dict.debugAnnotationsEnabled()) {
+                                out.write("{{#INC=");
+                                out.write(this.name);
+                                out.write("}}");
+                            }
+                            template.render(child, out, iteration);
+                            if (dict.debugAnnotationsEnabled()) {
+                                out.write("{{/INC}}");
+                            }
+                            child.renderComplete();
+
+                            child = following;
+                        }
+                    }
+                    else if (section.size() == 0 && !(section instanceof SectionList)) {
+
+                        iteration.iterate(0,true);
+                        /*
+                         * Once
+                         */
                         if (dict.debugAnnotationsEnabled()) {
                             out.write("{{#INC=");
                             out.write(this.name);
                             out.write("}}");
                         }
-                        template.render(child, out);
+                        template.render(dict, out, iteration);
                         if (dict.debugAnnotationsEnabled()) {
                             out.write("{{/INC}}");
                         }
                     }
+                    else {
+                        /*
+                         * Repeat
+                         */
+                        ColumnSection columns = (section instanceof ColumnSection)?((ColumnSection)section):(null);
+                        TemplateDataDictionary child = null;
+
+                        for (int cc = 0, count = section.size(), term = (count-1); cc < count; cc++){
+
+                            if (null != columns)
+                                child = columns.cursor(cc,child);
+                            else
+                                child = section.get(cc);
+
+                            iteration.iterate(cc,(cc == term));
+
+                            if (dict.debugAnnotationsEnabled()) {
+                                out.write("{{#INC=");
+                                out.write(this.name);
+                                out.write("}}");
+                            }
+                            template.render(child, out, iteration);
+                            if (dict.debugAnnotationsEnabled()) {
+                                out.write("{{/INC}}");
+                            }
+                        }
+                    }
                 }
-
-                /*
-                 */
-                if (previous_printwriter != null) {
-                    String results = sw.toString();
-                    out = previous_printwriter;
-                    out.write(Modifiers.applyModifiersWithIndentation(results, this.modifiers, this.indentation));
+                finally {
+                    if (previous_printwriter != null) {
+                        out.close();
+                        out = previous_printwriter;
+                    }
                 }
             } else if (dict.debugAnnotationsEnabled()) {
-                out.write("{{#INC="+this.name+"}}{{MISSING_FILE=" + filename + "}}{{/INC}}");
+                out.write("{{#INC=");
+                out.write(this.name);
+                out.write("}}{{MISSING_FILE=");
+                out.write(filename);
+                out.write("}}{{/INC}}");
             }
         } else if (dict.debugAnnotationsEnabled()) {
-            out.write("{{#INC="+this.name+"}}{{/INC}}");
+            out.write("{{#INC=");
+            out.write(this.name);
+            out.write("}}{{/INC}}");
         }
     }
 
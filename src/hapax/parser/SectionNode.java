@@ -25,6 +25,8 @@
  */
 package hapax.parser;
 
+import hapax.Name;
+import hapax.RenderFrame;
 import hapax.TemplateDataDictionary;
 import hapax.TemplateLoader;
 
@@ -53,6 +55,7 @@ public final class SectionNode
 
 
     private final String sectionName_;
+    private final Name path_;
     private final TYPE type_;
 
     volatile int indexOfClose = -1;
@@ -60,7 +63,8 @@ public final class SectionNode
 
     private SectionNode(int lno, String nodeName, TYPE node_type) {
         super(lno);
-        this.sectionName_ = nodeName;
+        this.sectionName_ = nodeName.intern();
+        this.path_ = (TYPE.OPEN == node_type)?(Name.Path(nodeName)):(null);
         this.type_ = node_type;
     }
 
@@ -72,10 +76,16 @@ public final class SectionNode
     public String getSectionName() {
         return sectionName_;
     }
+    /**
+     * @return Name path of an open tag, or null for a simple name.
+     */
+    public Name getPath() {
+        return path_;
+    }
 
     @Override
     public void evaluate(TemplateDataDictionary dict, TemplateLoader context,
-                         PrintWriter collector)
+                         PrintWriter collector, RenderFrame frame)
     {
         // do nothing
     }
@@ -25,6 +25,7 @@
  */
 package hapax.parser;
 
+import hapax.RenderFrame;
 import hapax.TemplateDataDictionary;
 import hapax.TemplateException;
 import hapax.TemplateLoader;
@@ -70,7 +71,7 @@ public abstract class TemplateNode {
         return TemplateType.TemplateTypeNode;
     }
     public void evaluate(TemplateDataDictionary dict, TemplateLoader context,
-                         PrintWriter collector) 
+                         PrintWriter collector, RenderFrame frame) 
         throws TemplateException 
     {
     }
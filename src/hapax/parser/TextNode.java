@@ -25,6 +25,7 @@
  */
 package hapax.parser;
 
+import hapax.RenderFrame;
 import hapax.TemplateDataDictionary;
 import hapax.TemplateLoader;
 
@@ -48,9 +49,14 @@ public final class TextNode
     }
 
 
+    String getText() {
+        return this.text;
+    }
+
+
     @Override
     public void evaluate(TemplateDataDictionary dict, TemplateLoader context,
-                         PrintWriter collector)
+                         PrintWriter collector, RenderFrame frame)
     {
         collector.write(text);
     }
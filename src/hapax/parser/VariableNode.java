@@ -25,7 +25,10 @@
  */
 package hapax.parser;
 
+import hapax.ColumnSection;
 import hapax.Modifiers;
+import hapax.Name;
+import hapax.RenderFrame;
 import hapax.TemplateDataDictionary;
 import hapax.TemplateException;
 import hapax.TemplateLoader;
@@ -49,38 +52,126 @@ public final class VariableNode
 
     private final String variable;
 
-    private final List<Modifiers.FLAGS> modifiers;
+    private final Name path;
+
+    private final Modifiers.Chain modifiers;
 
 
     VariableNode(int lno, String spec) {
         this(lno, spec.split(":"));
     }
-    private VariableNode(int lno, String[] spec) {
-        this(lno,spec[0],Modifiers.parseModifiers(spec));
+    /**
+     * Contextual variable.  The context modifier is inserted into
+     * modifiers that don't escape, after any template modifiers, and
+     * a "none" modifier selects raw output.  The URL scheme filter
+     * precedes all modifiers other than "none".
+     * 
+     * @param context Context of the variable
+     * @exception TemplateParserException For a variable in a context
+     * without an escaping modifier, having neither an escaping
+     * modifier nor "none"
+     */
+    VariableNode(int lno, String spec, HtmlContext.Context context)
+        throws TemplateParserException
+    {
+        this(lno,Contextual(lno,spec.split(":"),context));
     }
-    private VariableNode(int lno, String variable, List<Modifiers.FLAGS> modifiers) {
+    private VariableNode(int lno, String[] spec) {
         super(lno);
-        this.variable = variable;
-        this.modifiers = modifiers;
+        String variable = spec[0];
+        this.variable = variable.intern();
+        this.path = Name.Path(variable);
+        this.modifiers = Modifiers.compile(spec, null);
+    }
+
+
+    private static String[] Contextual(int lno, String[] spec, HtmlContext.Context context)
+        throws TemplateParserException
+    {
+        boolean raw = false, none = false;
+        List<String> list = new java.util.ArrayList<String>(spec.length+1);
+        int at = 1;
+        for (String modifier : spec) {
+            if (list.isEmpty())
+                list.add(modifier);
+            else if ("none".equalsIgnoreCase(modifier)) {
+                raw = true;
+                none = true;
+            }
+            else {
+                Modifiers.FLAGS flag = Modifiers.parseFlag(modifier);
+                if (null == flag)
+                    at = (list.size()+1);
+                else {
+                    switch (flag) {
+                    case H:
+                    case X:
+                    case J:
+                    case U:
+                        /*
+                         * Escaped by the template
+                         */
+                        raw = true;
+                        break;
+                    default:
+                        break;
+                    }
+                }
+                list.add(modifier);
+            }
+        }
+        if (!raw) {
+            if (null == context.escape)
+                throw new TemplateParserException("Variable '"+spec[0]+"' in CSS at line "+lno+" requires an escaping modifier or 'none'");
+            else
+                list.add(at,context.escape.name().toLowerCase());
+        }
+        if (context.scheme && !none)
+            list.add(1,Modifiers.SafeUrl.Name);
+        return list.toArray(new String[list.size()]);
     }
 
+    public String getVariableName() {
+        return this.variable;
+    }
+    /**
+     * @return Name path, or null for a simple name.
+     */
+    public Name getPath() {
+        return this.path;
+    }
 
     @Override
     public void evaluate(TemplateDataDictionary dict, TemplateLoader context,
-                         PrintWriter out)
+                         PrintWriter out, RenderFrame frame)
     {
-        String t = dict.getVariable(variable);
         if (dict.debugAnnotationsEnabled()) {
             out.write("{{#VAR=");
             out.write(variable);
             out.write("}}");
         }
-        if (null != t) {
-            if (this.modifiers.isEmpty())
-                out.write(t);
-            else {
-                t = Modifiers.applyModifiers(t, this.modifiers);
-                out.write(t);
+        TemplateDataDictionary scope = dict;
+        String name = this.variable;
+        /*
+         * A literal key before the path
+         */
+        if (null != this.path && null == frame.getVariableValue(dict, name)) {
+            scope = this.path.getScope(dict);
+            name = this.path.getLast().component;
+        }
+        /*
+         * Unmodified number from a column without boxing
+         */
+        boolean column = (null != scope && null == this.modifiers && scope instanceof ColumnSection.Row
+                          && frame.print(out, (ColumnSection.Row)scope, name));
+
+        if (null != scope && !column) {
+            Object value = frame.getVariableValue(scope, name);
+            if (null != value) {
+                if (null == this.modifiers)
+                    frame.print(out, value);
+                else
+                    frame.print(out, this.modifiers, value.toString());
             }
         }
         if (dict.debugAnnotationsEnabled()) {